@@ -0,0 +1,89 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Compiles {@literal rgb.txt} into the source of {@literal
+ * X11ColorTable}, which holds the color names sorted case-insensitively
+ * and their ARGB colors in parallel arrays.</p>
+ *
+ * <p>This runs during the {@literal generate-sources} phase of the build
+ * and is not part of the library.</p>
+ */
+public final class X11ColorTableGenerator {
+
+    private static final Pattern LINE_PATTERN =
+            Pattern.compile("(\\d+)\\s+(\\d+)\\s+(\\d+)\\s+(.+)");
+
+    /**
+     * @param args Path of {@literal rgb.txt}, and path of the directory
+     *             under which to write the source.
+     */
+    public static void main(String[] args) throws IOException {
+        final Path rgbFile   = Paths.get(args[0]);
+        final Path outputDir = Paths.get(args[1]);
+
+        final Map<String,Integer> colors =
+                new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String line : Files.readAllLines(rgbFile, StandardCharsets.US_ASCII)) {
+            Matcher matcher = LINE_PATTERN.matcher(line);
+            if (matcher.find()) {
+                String name = matcher.group(4);
+                int color = 0xff000000 |
+                        ((Integer.parseInt(matcher.group(1)) & 0xff) << 16) |
+                        ((Integer.parseInt(matcher.group(2)) & 0xff) << 8) |
+                        (Integer.parseInt(matcher.group(3)) & 0xff);
+                if (colors.put(name, color) != null) {
+                    throw new IllegalArgumentException(
+                            "Duplicate name in " + rgbFile + ": " + name);
+                }
+            }
+        }
+
+        final Path packageDir = outputDir.resolve(
+                X11ColorTableGenerator.class.getPackage().getName().replace('.', '/'));
+        Files.createDirectories(packageDir);
+        try (Writer writer = Files.newBufferedWriter(
+                packageDir.resolve("X11ColorTable.java"), StandardCharsets.US_ASCII)) {
+            writer.write("package " +
+                    X11ColorTableGenerator.class.getPackage().getName() + ";\n\n");
+            writer.write("/**\n" +
+                    " * X11 color names and their ARGB colors, generated from {@literal\n" +
+                    " * rgb.txt} by {@literal X11ColorTableGenerator}. Do not edit.\n" +
+                    " *\n" +
+                    " * @see X11ColorNames\n" +
+                    " */\n");
+            writer.write("final class X11ColorTable {\n\n");
+            writer.write("    /**\n" +
+                    "     * Sorted by {@link String#CASE_INSENSITIVE_ORDER}.\n" +
+                    "     */\n");
+            writer.write("    static final String[] NAMES = {\n");
+            for (String name : colors.keySet()) {
+                writer.write("            \"" + name + "\",\n");
+            }
+            writer.write("    };\n\n");
+            writer.write("    /**\n" +
+                    "     * Color of the name at the same index in {@link #NAMES}.\n" +
+                    "     */\n");
+            writer.write("    static final int[] COLORS = {\n");
+            for (int color : colors.values()) {
+                writer.write(String.format("            0x%08x,\n", color));
+            }
+            writer.write("    };\n\n");
+            writer.write("    private X11ColorTable() {}\n\n");
+            writer.write("}\n");
+        }
+    }
+
+    private X11ColorTableGenerator() {}
+
+}
@@ -0,0 +1,43 @@
+package edu.illinois.library.imageio.xpm;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Minimal {@link javax.imageio.stream.ImageInputStream} over a byte array,
+ * so that benchmarks measure decoding rather than stream caching.
+ */
+final class ByteArrayImageInputStream extends ImageInputStreamImpl {
+
+    private final byte[] bytes;
+
+    ByteArrayImageInputStream(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public long length() {
+        return bytes.length;
+    }
+
+    @Override
+    public int read() {
+        bitOffset = 0;
+        if (streamPos >= bytes.length) {
+            return -1;
+        }
+        return bytes[(int) streamPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        bitOffset = 0;
+        if (streamPos >= bytes.length) {
+            return -1;
+        }
+        int count = (int) Math.min(len, bytes.length - streamPos);
+        System.arraycopy(bytes, (int) streamPos, b, off, count);
+        streamPos += count;
+        return count;
+    }
+
+}
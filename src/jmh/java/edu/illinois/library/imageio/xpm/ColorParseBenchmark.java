@@ -0,0 +1,81 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the throughput of {@link XPMPixel#parse(byte[], int, int)},
+ * which the reader calls on slices of its stream buffer, from one thread and
+ * from as many threads as there are processors. With no shared locks on the
+ * parse path, the latter should scale with the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorParseBenchmark {
+
+    /**
+     * All of the color lines, concatenated.
+     */
+    private byte[] bytes;
+
+    /**
+     * Offset of each line within {@link #bytes}, followed by the length of
+     * {@link #bytes}.
+     */
+    private int[] lineOffsets;
+
+    @Setup
+    public void setUp() {
+        // Named colors, which exercise the color name lookup, interleaved
+        // with hexadecimal ones.
+        final String[] hexSpecs = SyntheticXPM.colorSpecs(X11ColorNames.size());
+        final StringBuilder builder = new StringBuilder();
+        lineOffsets = new int[X11ColorNames.size() * 2 + 1];
+        for (int i = 0; i < X11ColorNames.size(); i++) {
+            lineOffsets[i * 2] = builder.length();
+            builder.append("\tc ").append(X11ColorTable.NAMES[i])
+                    .append(" m white\",");
+            lineOffsets[i * 2 + 1] = builder.length();
+            builder.append(hexSpecs[i]);
+        }
+        lineOffsets[lineOffsets.length - 1] = builder.length();
+        bytes = builder.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private void parse(Blackhole blackhole) {
+        for (int i = 0; i < lineOffsets.length - 1; i++) {
+            blackhole.consume(
+                    XPMPixel.parse(bytes, lineOffsets[i], lineOffsets[i + 1]));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void parseSingleThreaded(Blackhole blackhole) {
+        parse(blackhole);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void parseMultiThreaded(Blackhole blackhole) {
+        parse(blackhole);
+    }
+
+}
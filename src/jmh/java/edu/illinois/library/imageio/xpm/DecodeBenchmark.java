@@ -0,0 +1,69 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks full decoding of large synthetic images.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DecodeBenchmark {
+
+    @Param({ "1", "2", "3", "4" })
+    private int numCharsPerPixel;
+
+    @Param({ "4096" })
+    private int size;
+
+    @Param({ "4000" })
+    private int numColors;
+
+    @Param({ "false" })
+    private boolean legacyDecoder;
+
+    @Param({ "1" })
+    private int numDecoderThreads;
+
+    private byte[] xpm;
+    private XPMImageReadParam param;
+
+    @Setup
+    public void setUp() {
+        xpm = SyntheticXPM.generate(size, size,
+                Math.min(numColors, SyntheticXPM.maxColors(numCharsPerPixel)),
+                numCharsPerPixel);
+        param = new XPMImageReadParam();
+        param.setLegacyDecoderEnabled(legacyDecoder);
+        param.setNumDecoderThreads(numDecoderThreads);
+    }
+
+    @Benchmark
+    public BufferedImage read() throws IOException {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            reader.setInput(new ByteArrayImageInputStream(xpm));
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+}
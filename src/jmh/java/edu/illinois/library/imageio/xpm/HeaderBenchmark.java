@@ -0,0 +1,89 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing of everything preceding the pixel section of a small
+ * image with a large palette.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderBenchmark {
+
+    @Param({ "1", "2", "3", "4" })
+    private int numCharsPerPixel;
+
+    @Param({ "4000" })
+    private int numColors;
+
+    private byte[] xpm;
+    private String[] colorSpecs;
+
+    @Setup
+    public void setUp() {
+        final int colors = Math.min(numColors,
+                SyntheticXPM.maxColors(numCharsPerPixel));
+        xpm        = SyntheticXPM.generate(16, 16, colors, numCharsPerPixel);
+        colorSpecs = SyntheticXPM.colorSpecs(colors);
+    }
+
+    private XPMImageReader newReader() {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        reader.setInput(new ByteArrayImageInputStream(xpm));
+        return reader;
+    }
+
+    /**
+     * Parses the values line only.
+     */
+    @Benchmark
+    public int readValues() throws IOException {
+        XPMImageReader reader = newReader();
+        try {
+            return reader.getWidth(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Parses the values line and color map, and compiles the palette.
+     */
+    @Benchmark
+    public Iterator<ImageTypeSpecifier> readColorMap() throws IOException {
+        XPMImageReader reader = newReader();
+        try {
+            return reader.getImageTypes(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Benchmark
+    public void parsePixels(Blackhole blackhole) {
+        for (String spec : colorSpecs) {
+            blackhole.consume(XPMPixel.parse(spec));
+        }
+    }
+
+}
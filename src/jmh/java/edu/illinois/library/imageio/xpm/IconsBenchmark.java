@@ -0,0 +1,92 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks full decoding of every readable image in the bundled icon
+ * corpus. One operation decodes the whole corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IconsBenchmark {
+
+    private static final Path ICONS_PATH = Paths.get("src", "test", "resources", "icons");
+
+    @Param({ "false", "true" })
+    private boolean legacyDecoder;
+
+    private final List<byte[]> icons = new ArrayList<>();
+    private XPMImageReadParam param;
+
+    @Setup
+    public void setUp() throws IOException {
+        param = new XPMImageReadParam();
+        param.setLegacyDecoderEnabled(legacyDecoder);
+        try (Stream<Path> paths = Files.walk(ICONS_PATH)) {
+            for (Path path : paths
+                    .filter(p -> p.toString().endsWith(".xpm"))
+                    .sorted()
+                    .collect(Collectors.toList())) {
+                byte[] icon = Files.readAllBytes(path);
+                if (isReadable(icon)) {
+                    icons.add(icon);
+                }
+            }
+        }
+    }
+
+    /**
+     * Some of the icons in the corpus are not valid XPM, and are excluded.
+     */
+    private boolean isReadable(byte[] icon) {
+        try {
+            read(icon);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private Object read(byte[] icon) throws IOException {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            reader.setInput(new ByteArrayImageInputStream(icon));
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) throws IOException {
+        for (byte[] icon : icons) {
+            blackhole.consume(read(icon));
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates XPM images of arbitrary size and palette.
+ */
+final class SyntheticXPM {
+
+    /**
+     * Characters usable in pixel codes: all printable ASCII characters except
+     * the quote and backslash, and the slash, which could form comment
+     * delimiters.
+     */
+    private static final String ALPHABET;
+
+    static {
+        StringBuilder builder = new StringBuilder();
+        for (char c = ' '; c <= '~'; c++) {
+            if (c != '"' && c != '\\' && c != '/') {
+                builder.append(c);
+            }
+        }
+        ALPHABET = builder.toString();
+    }
+
+    /**
+     * @return Maximum number of colors that can be encoded with the given
+     *         number of characters per pixel.
+     */
+    static int maxColors(int numCharsPerPixel) {
+        return (int) Math.min(Integer.MAX_VALUE,
+                Math.pow(ALPHABET.length(), numCharsPerPixel));
+    }
+
+    static String code(int index, int numCharsPerPixel) {
+        char[] chars = new char[numCharsPerPixel];
+        for (int i = numCharsPerPixel - 1; i >= 0; i--) {
+            chars[i] = ALPHABET.charAt(index % ALPHABET.length());
+            index /= ALPHABET.length();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return Color lines, without the leading code, as passed to {@link
+     *         XPMPixel#parse(String)}.
+     */
+    static String[] colorSpecs(int numColors) {
+        String[] specs = new String[numColors];
+        for (int i = 0; i < numColors; i++) {
+            specs[i] = String.format("\tc #%06X\",", (i * 0x9E3779) & 0xffffff);
+        }
+        return specs;
+    }
+
+    /**
+     * @return Image whose pixels are chosen pseudo-randomly (but
+     *         deterministically) from the palette.
+     */
+    static byte[] generate(int width,
+                           int height,
+                           int numColors,
+                           int numCharsPerPixel) {
+        if (numColors > maxColors(numCharsPerPixel)) {
+            throw new IllegalArgumentException("Too many colors");
+        }
+        final String[] codes = new String[numColors];
+        for (int i = 0; i < numColors; i++) {
+            codes[i] = code(i, numCharsPerPixel);
+        }
+        final String[] specs = colorSpecs(numColors);
+        final StringBuilder builder = new StringBuilder(
+                (width * numCharsPerPixel + 4) * height + numColors * 20);
+        builder.append("/* XPM */\n");
+        builder.append("static char *synthetic[] = {\n");
+        builder.append("/* columns rows colors chars-per-pixel */\n");
+        builder.append('"').append(width).append(' ').append(height)
+                .append(' ').append(numColors).append(' ')
+                .append(numCharsPerPixel).append("\",\n");
+        for (int i = 0; i < numColors; i++) {
+            builder.append('"').append(codes[i]).append(specs[i]).append('\n');
+        }
+        builder.append("/* pixels */\n");
+        long seed = 42;
+        for (int y = 0; y < height; y++) {
+            builder.append('"');
+            for (int x = 0; x < width; x++) {
+                seed = seed * 6364136223846793005L + 1442695040888963407L;
+                builder.append(codes[(int) ((seed >>> 33) % numColors)]);
+            }
+            builder.append((y < height - 1) ? "\",\n" : "\"\n");
+        }
+        builder.append("};\n");
+        return builder.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private SyntheticXPM() {}
+
+}
@@ -0,0 +1,104 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.util.Arrays;
+
+/**
+ * <p>Open-addressing hash map of {@literal int} colors to {@literal int}
+ * indices, which avoids boxing.</p>
+ *
+ * <p>Indices are assigned consecutively from 0 in order of insertion.</p>
+ */
+final class ColorIndexMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys, indices;
+    private int size, mask, shift;
+
+    ColorIndexMap() {
+        allocate(64);
+    }
+
+    private void allocate(int capacity) {
+        keys    = new int[capacity];
+        indices = new int[capacity];
+        mask    = capacity - 1;
+        shift   = 32 - Integer.numberOfTrailingZeros(capacity);
+        Arrays.fill(indices, EMPTY);
+    }
+
+    /**
+     * Fibonacci hashing of a color into a slot.
+     */
+    private int slot(int color) {
+        return ((color * 0x9e3779b9) >>> shift) & mask;
+    }
+
+    /**
+     * @return Index of the given color, or {@literal -1} if it is not
+     *         present.
+     */
+    int get(int color) {
+        int slot = slot(color);
+        int index;
+        while ((index = indices[slot]) != EMPTY) {
+            if (keys[slot] == color) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * @return Index of the given color, which is added with the next index
+     *         if it is not present.
+     */
+    int add(int color) {
+        int slot = slot(color);
+        int index;
+        while ((index = indices[slot]) != EMPTY) {
+            if (keys[slot] == color) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot]    = color;
+        indices[slot] = size;
+        index = size++;
+        // Keep the load factor at or below 50%.
+        if (size * 2 > keys.length) {
+            final int[] oldKeys = keys, oldIndices = indices;
+            allocate(keys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldIndices[i] != EMPTY) {
+                    slot = slot(oldKeys[i]);
+                    while (indices[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot]    = oldKeys[i];
+                    indices[slot] = oldIndices[i];
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return Colors in index order.
+     */
+    int[] colors() {
+        final int[] colors = new int[size];
+        for (int i = 0; i < keys.length; i++) {
+            if (indices[i] != EMPTY) {
+                colors[indices[i]] = keys[i];
+            }
+        }
+        return colors;
+    }
+
+    int size() {
+        return size;
+    }
+
+}
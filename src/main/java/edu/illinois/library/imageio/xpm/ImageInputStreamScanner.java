@@ -0,0 +1,351 @@
+package edu.illinois.library.imageio.xpm;
+
+import javax.imageio.IIOException;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>Reads an {@link ImageInputStream} in large chunks into a reusable byte
+ * buffer and exposes its contents either as lines or as slices of that
+ * buffer.</p>
+ *
+ * <p>XPM is pure ASCII, so no charset decoding is performed. Slices exposed
+ * by {@link #nextLine()} and {@link #nextQuotedString()} are only valid until
+ * the next call to any reading method.</p>
+ *
+ * <p>N.B.: the underlying stream is read ahead of {@link #position()}, so it
+ * should not be read from directly while an instance is in use.</p>
+ */
+final class ImageInputStreamScanner {
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    /**
+     * Default maximum length of a line or quoted string, which is ample for
+     * any header line.
+     */
+    static final int DEFAULT_MAX_LINE_LENGTH = 1 << 16;
+
+    /**
+     * Largest array size that the JVM reliably supports.
+     */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final ImageInputStream stream;
+    private byte[] buffer;
+
+    /**
+     * Stream position corresponding to {@literal buffer[0]}.
+     */
+    private long bufferOffset;
+
+    /**
+     * Index of the next unread byte in {@link #buffer}.
+     */
+    private int pos;
+
+    /**
+     * Index one past the last valid byte in {@link #buffer}.
+     */
+    private int limit;
+
+    private int sliceStart, sliceEnd;
+
+    /**
+     * Stream position beyond which no bytes may be read.
+     */
+    private long maxPosition = Long.MAX_VALUE;
+
+    private long maxLineLength;
+
+    /**
+     * Size beyond which {@link #buffer} may not grow, which is enough to
+     * hold a line of {@link #maxLineLength} bytes plus a CRLF terminator.
+     */
+    private int maxBufferSize;
+
+    ImageInputStreamScanner(ImageInputStream stream) throws IOException {
+        this(stream, INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize Initial size of the buffer, which is also the size
+     *                   of the chunks in which the stream is read. The
+     *                   buffer grows as needed to hold a whole line, up to
+     *                   the {@link #setMaxLineLength(long) maximum line
+     *                   length}.
+     */
+    ImageInputStreamScanner(ImageInputStream stream,
+                            int bufferSize) throws IOException {
+        this.stream       = stream;
+        this.buffer       = new byte[bufferSize];
+        this.bufferOffset = stream.getStreamPosition();
+        setMaxLineLength(DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    /**
+     * @return Buffer backing the slice returned by the most recent call to
+     *         {@link #nextLine()} or {@link #nextQuotedString()}.
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return Index in {@link #buffer()} of the first byte of the current
+     *         slice.
+     */
+    int sliceStart() {
+        return sliceStart;
+    }
+
+    /**
+     * @return Index in {@link #buffer()} one past the last byte of the
+     *         current slice.
+     */
+    int sliceEnd() {
+        return sliceEnd;
+    }
+
+    /**
+     * @return Stream position of the next unread byte.
+     */
+    long position() {
+        return bufferOffset + pos;
+    }
+
+    /**
+     * @return Stream position of the first byte of the current slice.
+     */
+    long slicePosition() {
+        return bufferOffset + sliceStart;
+    }
+
+    /**
+     * Limits reading to the bytes preceding the given stream position.
+     * Reading fails with an {@link IIOException} only once there is a byte
+     * at or beyond it, so a stream that ends there is read normally.
+     *
+     * @param maxPosition Stream position.
+     */
+    void setMaxPosition(long maxPosition) {
+        this.maxPosition = maxPosition;
+    }
+
+    /**
+     * Limits the size to which the buffer can grow, and thereby the length
+     * of the lines and quoted strings that can be read. Reading a longer one
+     * that does not fit in the initial buffer fails with an {@link
+     * IIOException}.
+     *
+     * @param maxLineLength Maximum length in bytes, excluding terminators.
+     */
+    void setMaxLineLength(long maxLineLength) {
+        this.maxLineLength = maxLineLength;
+        this.maxBufferSize = (int) Math.min(maxLineLength + 2, MAX_ARRAY_SIZE);
+    }
+
+    /**
+     * Moves to the given stream position. If it is within the buffer, the
+     * stream is not accessed.
+     *
+     * @param position Stream position, which must not precede the flushed
+     *                 position of the stream.
+     */
+    void seek(long position) throws IOException {
+        if (position >= bufferOffset && position <= bufferOffset + limit) {
+            pos = (int) (position - bufferOffset);
+        } else {
+            stream.seek(position);
+            bufferOffset = position;
+            pos = limit = 0;
+        }
+    }
+
+    /**
+     * Compacts the buffer, growing it if it is full, and reads more bytes
+     * into it. Indices into the buffer obtained before calling this method
+     * must be adjusted by the value of {@link #pos} prior to the call.
+     *
+     * @return Whether any bytes were read.
+     * @throws IIOException if the stream extends to the {@link
+     *         #setMaxPosition(long) maximum position}, or if the buffer is
+     *         full and would exceed the {@link #setMaxLineLength(long)
+     *         maximum line length}.
+     */
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            bufferOffset += pos;
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buffer.length) {
+            if (buffer.length >= maxBufferSize) {
+                throw new IIOException("Length of line at stream position " +
+                        bufferOffset + " exceeds the limit of " + maxLineLength);
+            }
+            buffer = Arrays.copyOf(buffer,
+                    (int) Math.min(buffer.length * 2L, maxBufferSize));
+        }
+        // One byte more than allowed is requested in order to tell whether
+        // the stream extends beyond the maximum position.
+        final long remaining = maxPosition - (bufferOffset + limit);
+        if (remaining < 0) {
+            throw newLimitException();
+        }
+        final int space   = buffer.length - limit;
+        final int request = (remaining < space) ? (int) remaining + 1 : space;
+        int count = stream.read(buffer, limit, request);
+        if (count <= 0) {
+            return false;
+        }
+        limit += count;
+        if (count > remaining) {
+            throw newLimitException();
+        }
+        return true;
+    }
+
+    private IIOException newLimitException() {
+        return new IIOException(
+                "Input extends beyond the read limit at stream position " +
+                        maxPosition);
+    }
+
+    /**
+     * Advances to the next line, which may be terminated by LF, CR, or CRLF,
+     * and exposes its contents (without the terminator) via {@link
+     * #buffer()}, {@link #sliceStart()}, and {@link #sliceEnd()}.
+     *
+     * @return {@code false} if the end of the stream has been reached.
+     */
+    boolean nextLine() throws IOException {
+        int i = pos;
+        while (true) {
+            if (i == limit) {
+                int offset = i - pos;
+                if (!fill()) {
+                    break;
+                }
+                i = pos + offset;
+                continue;
+            }
+            byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+                if (b == '\r' && i + 1 == limit) {
+                    // Read ahead to check for CRLF while the line is still
+                    // ahead of pos, so that it is kept by the compaction.
+                    int offset = i - pos;
+                    fill();
+                    i = pos + offset;
+                }
+                sliceStart = pos;
+                sliceEnd   = i;
+                pos        = i + 1;
+                if (b == '\r' && pos < limit && buffer[pos] == '\n') {
+                    pos++;
+                }
+                return true;
+            }
+            i++;
+        }
+        if (pos == limit) {
+            return false;
+        }
+        sliceStart = pos;
+        sliceEnd   = limit;
+        pos        = limit;
+        return true;
+    }
+
+    /**
+     * Advances to the next C string literal, skipping whitespace, commas, and
+     * comments, and exposes its contents (without the quotes) via {@link
+     * #buffer()}, {@link #sliceStart()}, and {@link #sliceEnd()}.
+     *
+     * @return {@code false} if any other character (such as the closing brace
+     *         of the array) or the end of the stream was encountered first.
+     */
+    boolean nextQuotedString() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return false;
+            }
+            byte b = buffer[pos];
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == ',') {
+                pos++;
+            } else if (b == '/') {
+                if (pos + 1 == limit) {
+                    fill();
+                }
+                if (pos + 1 == limit) {
+                    return false;
+                } else if (buffer[pos + 1] == '*') {
+                    skipPast('*', '/', 2);
+                } else if (buffer[pos + 1] == '/') {
+                    skipPast('\n', -1, 2);
+                } else {
+                    return false;
+                }
+            } else if (b == '"') {
+                return readQuotedString();
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Advances past the first occurrence of the given one- or two-byte
+     * sequence, or to the end of the stream.
+     *
+     * @param second Second byte of the sequence, or {@literal -1} to search
+     *               for a single byte.
+     * @param skip   Number of bytes at the current position to skip before
+     *               searching.
+     */
+    private void skipPast(int first, int second, int skip) throws IOException {
+        pos += skip;
+        while (true) {
+            if (pos == limit && !fill()) {
+                return;
+            }
+            if (buffer[pos++] == first) {
+                if (second == -1) {
+                    return;
+                }
+                if (pos == limit && !fill()) {
+                    return;
+                }
+                if (buffer[pos] == second) {
+                    pos++;
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean readQuotedString() throws IOException {
+        int i = pos + 1;
+        while (true) {
+            if (i == limit) {
+                int offset = i - pos;
+                if (!fill()) {
+                    return false;
+                }
+                i = pos + offset;
+                continue;
+            }
+            if (buffer[i] == '"') {
+                sliceStart = pos + 1;
+                sliceEnd   = i;
+                pos        = i + 1;
+                return true;
+            }
+            i++;
+        }
+    }
+
+}
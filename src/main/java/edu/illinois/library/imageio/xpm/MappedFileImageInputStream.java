@@ -0,0 +1,92 @@
+package edu.illinois.library.imageio.xpm;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Read-only {@link javax.imageio.stream.ImageInputStream} over a file that
+ * is memory-mapped in its entirety via {@link FileChannel#map}.</p>
+ *
+ * <p>Reads are bulk copies out of the mapping, so they involve no system
+ * calls, and seeks only move the stream position. The mapping is released
+ * by the garbage collector after {@link #close()}, as there is no public
+ * API to unmap it sooner.</p>
+ */
+final class MappedFileImageInputStream extends ImageInputStreamImpl {
+
+    /**
+     * Largest file that can be mapped into a single buffer.
+     */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * @param path File no larger than {@link #MAX_SIZE}.
+     * @throws IOException if the file cannot be opened or mapped, or is
+     *         larger than {@link #MAX_SIZE}.
+     */
+    MappedFileImageInputStream(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            if (size > MAX_SIZE) {
+                throw new IOException("File is too large to map: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        channel.close();
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= buffer.limit()) {
+            return -1;
+        }
+        return buffer.get((int) streamPos++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        checkClosed();
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        bitOffset = 0;
+        if (length == 0) {
+            return 0;
+        }
+        final long remaining = buffer.limit() - streamPos;
+        if (remaining <= 0) {
+            return -1;
+        }
+        final int count = (int) Math.min(length, remaining);
+        // Called via Buffer, whose position(int) exists on all runtimes.
+        ((Buffer) buffer).position((int) streamPos);
+        buffer.get(bytes, offset, count);
+        streamPos += count;
+        return count;
+    }
+
+}
@@ -0,0 +1,160 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * <p>Decodes rows concurrently, in bands of a fixed number of rows.</p>
+ *
+ * <p>Rows are {@link #add added} in order by a single thread, which copies
+ * them out of the (reusable) scanner buffer into the current band. Whenever
+ * a band is full, it is submitted to the executor and decoded by its own
+ * {@link RowDecoder}. As every row is written to a different destination
+ * row, the result is identical to decoding the rows sequentially.</p>
+ */
+final class RowBandDecoder implements AutoCloseable {
+
+    /**
+     * Copy of a number of consecutive rows.
+     */
+    private static final class Band {
+
+        private byte[] data;
+        private int size, numRows;
+        private final int[] rowStarts, rowEnds, destYs;
+
+        Band(int height, int initialCapacity) {
+            data      = new byte[Math.max(16, initialCapacity)];
+            rowStarts = new int[height];
+            rowEnds   = new int[height];
+            destYs    = new int[height];
+        }
+
+        void add(byte[] buffer, int rowStart, int rowEnd, int destY) {
+            final int length = rowEnd - rowStart;
+            if (size + length > data.length) {
+                data = Arrays.copyOf(data, Math.max(size + length, data.length * 2));
+            }
+            System.arraycopy(buffer, rowStart, data, size, length);
+            rowStarts[numRows] = size;
+            size += length;
+            rowEnds[numRows]   = size;
+            destYs[numRows]    = destY;
+            numRows++;
+        }
+
+        void decode(RowDecoder decoder) {
+            for (int i = 0; i < numRows; i++) {
+                decoder.decode(data, rowStarts[i], rowEnds[i], destYs[i]);
+            }
+        }
+    }
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final Supplier<RowDecoder> decoderFactory;
+    private final int bandHeight;
+    private final Executor executor;
+
+    /**
+     * Executor created by this instance when none was supplied, which is
+     * shut down by {@link #close()}.
+     */
+    private final ExecutorService ownExecutor;
+
+    private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+    private Band band;
+
+    /**
+     * @param decoderFactory Supplies a new decoder for each band.
+     * @param bandHeight     Number of rows per band.
+     * @param numThreads     Number of threads with which to decode, if
+     *                       {@literal executor} is {@code null}.
+     * @param executor       Executor on which to decode bands. If {@code
+     *                       null}, one with {@literal numThreads} daemon
+     *                       threads is created and shut down on {@link
+     *                       #close()}.
+     */
+    RowBandDecoder(Supplier<RowDecoder> decoderFactory,
+                   int bandHeight,
+                   int numThreads,
+                   Executor executor) {
+        this.decoderFactory = decoderFactory;
+        this.bandHeight     = bandHeight;
+        if (executor != null) {
+            this.executor    = executor;
+            this.ownExecutor = null;
+        } else {
+            this.ownExecutor = Executors.newFixedThreadPool(numThreads, r -> {
+                Thread thread = new Thread(r,
+                        "XPMImageReader-decoder-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.executor = ownExecutor;
+        }
+    }
+
+    /**
+     * Copies a row into the current band, submitting the band for decoding
+     * if it is full.
+     *
+     * @see RowDecoder#decode(byte[], int, int, int)
+     */
+    void add(byte[] buffer, int rowStart, int rowEnd, int destY) {
+        if (band == null) {
+            band = new Band(bandHeight, (rowEnd - rowStart) * bandHeight);
+        }
+        band.add(buffer, rowStart, rowEnd, destY);
+        if (band.numRows == bandHeight) {
+            submit();
+        }
+    }
+
+    private void submit() {
+        final Band band = this.band;
+        this.band = null;
+        futures.add(CompletableFuture.runAsync(
+                () -> band.decode(decoderFactory.get()), executor));
+    }
+
+    /**
+     * Submits any partially filled band and waits for all bands to be
+     * decoded.
+     *
+     * @throws RuntimeException if the decoding of any band failed.
+     */
+    void finish() {
+        if (band != null) {
+            submit();
+        }
+        try {
+            CompletableFuture.allOf(
+                    futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package edu.illinois.library.imageio.xpm;
+
+/**
+ * <p>Resolves rows of pixel codes to palette indices and hands them to a
+ * {@link RowWriter}.</p>
+ *
+ * <p>Only the columns from {@literal startX} (inclusive) to {@literal endX}
+ * (exclusive) that are multiples of the subsampling period are decoded, into
+ * consecutive destination columns starting at {@literal destX}.</p>
+ *
+ * <p>Instances are not thread-safe, but any number of them may write
+ * different rows of the same image concurrently.</p>
+ */
+final class RowDecoder {
+
+    private final XPMPalette palette;
+    private final RowWriter writer;
+    private final int startX, endX, subsampX, destX;
+    private final int[] indices;
+
+    RowDecoder(XPMPalette palette,
+               RowWriter writer,
+               int startX,
+               int endX,
+               int subsampX,
+               int destX) {
+        this.palette  = palette;
+        this.writer   = writer;
+        this.startX   = startX;
+        this.endX     = endX;
+        this.subsampX = subsampX;
+        this.destX    = destX;
+        this.indices  = new int[(endX - startX + subsampX - 1) / subsampX];
+    }
+
+    /**
+     * @param buffer   Buffer containing the row.
+     * @param rowStart Index in the buffer of the first character of the row,
+     *                 following the opening quote.
+     * @param rowEnd   Index in the buffer of the closing quote.
+     * @param destY    Row in the destination image.
+     */
+    void decode(byte[] buffer, int rowStart, int rowEnd, int destY) {
+        final int cpp     = palette.getNumCharsPerPixel();
+        final int rowEndX = Math.min(endX, (rowEnd - rowStart) / cpp);
+        int length = 0;
+        for (int srcX = startX, pos = rowStart + startX * cpp,
+             posStep = subsampX * cpp; srcX < rowEndX;
+             srcX += subsampX, pos += posStep) {
+            indices[length++] = palette.indexOf(buffer, pos);
+        }
+        if (length > 0) {
+            writer.write(indices, length, destX, destY);
+        }
+    }
+
+}
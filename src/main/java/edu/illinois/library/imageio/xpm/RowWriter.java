@@ -0,0 +1,368 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * <p>Writes rows of palette indices into a destination image.</p>
+ *
+ * <p>Instances are obtained from {@link #create(BufferedImage, int[])}, which
+ * chooses an implementation that writes directly into the image's data
+ * buffer when its layout is recognized, and otherwise falls back to {@link
+ * BufferedImage#setRGB(int, int, int, int, int[], int, int)}, or from {@link
+ * #create(WritableRaster, ColorModel, int[])} for a bare raster, or from
+ * {@link #create(int[], int[])} for a single row of colors.</p>
+ *
+ * <p>The direct implementations convert each palette color into the image's
+ * pixel representation once, using {@link ColorModel#getDataElements(int,
+ * Object)} exactly as {@link BufferedImage#setRGB(int, int, int)} would, so
+ * the result is the same as if every pixel had been set individually.
+ * {@link #copy()} shares the converted colors, so that they are converted
+ * only once however many threads write into the same destination.</p>
+ */
+abstract class RowWriter {
+
+    /**
+     * Writes whole pixels into a {@link DataBufferInt} with a {@link
+     * SinglePixelPackedSampleModel}, such as that of {@link
+     * BufferedImage#TYPE_INT_ARGB} or {@link BufferedImage#TYPE_INT_RGB}.
+     */
+    private static final class PackedIntRowWriter extends RowWriter {
+
+        private final int[] data, pixels;
+        private final int offset, scanlineStride;
+
+        /**
+         * @param pixels Pixel of each palette index.
+         */
+        PackedIntRowWriter(WritableRaster raster, int[] pixels) {
+            DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            this.data           = dataBuffer.getData();
+            this.pixels         = pixels;
+            this.scanlineStride = ((SinglePixelPackedSampleModel)
+                    raster.getSampleModel()).getScanlineStride();
+            this.offset         = dataBuffer.getOffset() -
+                    raster.getSampleModelTranslateY() * scanlineStride -
+                    raster.getSampleModelTranslateX();
+        }
+
+        @Override
+        void write(int[] indices, int length, int destX, int destY) {
+            final int base = offset + destY * scanlineStride + destX;
+            for (int i = 0; i < length; i++) {
+                final int index = indices[i];
+                if (index >= 0) {
+                    data[base + i] = pixels[index];
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes byte samples into a single-banked {@link DataBufferByte} with a
+     * {@link ComponentSampleModel}, such as that of {@link
+     * BufferedImage#TYPE_BYTE_GRAY}, {@link BufferedImage#TYPE_BYTE_INDEXED},
+     * or {@link BufferedImage#TYPE_3BYTE_BGR}.
+     */
+    private static final class ByteComponentRowWriter extends RowWriter {
+
+        private final byte[] data, samples;
+        private final int[] bandOffsets;
+        private final int numBands, offset, pixelStride, scanlineStride;
+
+        /**
+         * @param samples Samples of each palette index, interleaved by band.
+         */
+        ByteComponentRowWriter(WritableRaster raster, byte[] samples) {
+            DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+            ComponentSampleModel sampleModel =
+                    (ComponentSampleModel) raster.getSampleModel();
+            this.data           = dataBuffer.getData();
+            this.samples        = samples;
+            this.bandOffsets    = sampleModel.getBandOffsets();
+            this.numBands       = bandOffsets.length;
+            this.pixelStride    = sampleModel.getPixelStride();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.offset         = dataBuffer.getOffset() -
+                    raster.getSampleModelTranslateY() * scanlineStride -
+                    raster.getSampleModelTranslateX() * pixelStride;
+        }
+
+        @Override
+        void write(int[] indices, int length, int destX, int destY) {
+            int pos = offset + destY * scanlineStride + destX * pixelStride;
+            if (numBands == 1) {
+                pos += bandOffsets[0];
+                for (int i = 0; i < length; i++, pos += pixelStride) {
+                    final int index = indices[i];
+                    if (index >= 0) {
+                        data[pos] = samples[index];
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < length; i++, pos += pixelStride) {
+                final int index = indices[i];
+                if (index >= 0) {
+                    for (int b = 0, s = index * numBands; b < numBands; b++, s++) {
+                        data[pos + bandOffsets[b]] = samples[s];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes 1-, 2-, or 4-bit pixels into a {@link DataBufferByte} with a
+     * {@link MultiPixelPackedSampleModel}, such as that of {@link
+     * BufferedImage#TYPE_BYTE_BINARY}.
+     */
+    private static final class PackedByteRowWriter extends RowWriter {
+
+        private final byte[] data;
+        private final int[] pixels;
+        private final int offset, scanlineStride, bitsPerPixel, dataBitOffset,
+                translateX;
+
+        /**
+         * @param pixels Pixel of each palette index.
+         */
+        PackedByteRowWriter(WritableRaster raster, int[] pixels) {
+            DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+            MultiPixelPackedSampleModel sampleModel =
+                    (MultiPixelPackedSampleModel) raster.getSampleModel();
+            this.data           = dataBuffer.getData();
+            this.pixels         = pixels;
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.bitsPerPixel   = sampleModel.getPixelBitStride();
+            this.dataBitOffset  = sampleModel.getDataBitOffset();
+            this.translateX     = raster.getSampleModelTranslateX();
+            this.offset         = dataBuffer.getOffset() -
+                    raster.getSampleModelTranslateY() * scanlineStride;
+        }
+
+        @Override
+        void write(int[] indices, int length, int destX, int destY) {
+            final int rowBase = offset + destY * scanlineStride;
+            final int mask    = (1 << bitsPerPixel) - 1;
+            int bit = (destX - translateX) * bitsPerPixel + dataBitOffset;
+            for (int i = 0; i < length; i++, bit += bitsPerPixel) {
+                final int index = indices[i];
+                if (index >= 0) {
+                    final int pos   = rowBase + (bit >>> 3);
+                    final int shift = 8 - bitsPerPixel - (bit & 7);
+                    data[pos] = (byte) ((data[pos] & ~(mask << shift)) |
+                            ((pixels[index] & mask) << shift));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes any kind of image by way of {@link BufferedImage#setRGB(int,
+     * int, int, int, int[], int, int)}.
+     */
+    private static final class RGBRowWriter extends RowWriter {
+
+        private final BufferedImage image;
+        private final int[] colors;
+        private int[] row = new int[0];
+
+        RGBRowWriter(BufferedImage image, int[] colors) {
+            this.image  = image;
+            this.colors = colors;
+        }
+
+        @Override
+        RowWriter copy() {
+            return new RGBRowWriter(image, colors);
+        }
+
+        @Override
+        void write(int[] indices, int length, int destX, int destY) {
+            if (row.length < length) {
+                row = new int[length];
+            }
+            // Unknown codes leave pixels untouched, so runs of known ones are
+            // set one at a time.
+            int runStart = -1;
+            for (int i = 0; i <= length; i++) {
+                final int index = (i < length) ? indices[i] : -1;
+                if (index >= 0) {
+                    if (runStart < 0) {
+                        runStart = i;
+                    }
+                    row[i] = colors[index];
+                } else if (runStart >= 0) {
+                    image.setRGB(destX + runStart, destY, i - runStart, 1,
+                            row, runStart, length);
+                    runStart = -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes colors into an array holding a single row, such as one handed
+     * to an {@link XPMScanlineConsumer}.
+     */
+    private static final class ArrayRowWriter extends RowWriter {
+
+        private final int[] row, colors;
+
+        ArrayRowWriter(int[] row, int[] colors) {
+            this.row    = row;
+            this.colors = colors;
+        }
+
+        @Override
+        void write(int[] indices, int length, int destX, int destY) {
+            for (int i = 0; i < length; i++) {
+                final int index = indices[i];
+                if (index >= 0) {
+                    row[destX + i] = colors[index];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param row    Destination row, into which every row is written
+     *               regardless of its destination row index.
+     * @param colors ARGB color of each palette index.
+     * @return       Instance that writes into the given row.
+     */
+    static RowWriter create(int[] row, int[] colors) {
+        return new ArrayRowWriter(row, colors);
+    }
+
+    /**
+     * @param image  Destination image.
+     * @param colors ARGB color of each palette index.
+     * @return       Instance suited to the given image.
+     */
+    static RowWriter create(BufferedImage image, int[] colors) {
+        final RowWriter writer = createDirect(image.getRaster(),
+                image.getColorModel(), colors);
+        return (writer != null) ? writer : new RGBRowWriter(image, colors);
+    }
+
+    /**
+     * @param raster     Destination raster.
+     * @param colorModel Color model with which to convert colors into pixels
+     *                   of the raster.
+     * @param colors     ARGB color of each palette index.
+     * @return           Instance that writes directly into the raster.
+     * @throws IllegalArgumentException if the layout of the raster is not
+     *         supported.
+     */
+    static RowWriter create(WritableRaster raster,
+                            ColorModel colorModel,
+                            int[] colors) {
+        final RowWriter writer = createDirect(raster, colorModel, colors);
+        if (writer == null) {
+            throw new IllegalArgumentException("Unsupported raster: " +
+                    raster.getSampleModel().getClass().getSimpleName());
+        }
+        return writer;
+    }
+
+    /**
+     * @return Instance that writes directly into the given raster, or {@code
+     *         null} if its layout is not supported.
+     */
+    private static RowWriter createDirect(WritableRaster raster,
+                                          ColorModel colorModel,
+                                          int[] colors) {
+        final SampleModel sampleModel = raster.getSampleModel();
+        final DataBuffer dataBuffer   = raster.getDataBuffer();
+        if (dataBuffer.getNumBanks() != 1 ||
+                colorModel.getTransferType() != dataBuffer.getDataType()) {
+            return null;
+        }
+        if (dataBuffer instanceof DataBufferInt &&
+                sampleModel instanceof SinglePixelPackedSampleModel) {
+            final int[] pixels = new int[colors.length];
+            for (int i = 0; i < colors.length; i++) {
+                pixels[i] = ((int[]) colorModel.getDataElements(colors[i], null))[0];
+            }
+            return new PackedIntRowWriter(raster, pixels);
+        } else if (dataBuffer instanceof DataBufferByte) {
+            // When the color model is the palette, its indices are written
+            // as-is, as getDataElements() could return a different index of
+            // a duplicate color.
+            final int numBands      = sampleModel.getNumDataElements();
+            final boolean isPalette = numBands == 1 &&
+                    isPaletteColorModel(colorModel, colors);
+            final byte[] samples    = new byte[colors.length * numBands];
+            for (int i = 0; i < colors.length; i++) {
+                if (isPalette) {
+                    samples[i] = (byte) i;
+                } else {
+                    System.arraycopy(colorModel.getDataElements(colors[i], null),
+                            0, samples, i * numBands, numBands);
+                }
+            }
+            if (sampleModel instanceof MultiPixelPackedSampleModel) {
+                final int[] pixels = new int[colors.length];
+                for (int i = 0; i < colors.length; i++) {
+                    pixels[i] = samples[i] & 0xff;
+                }
+                return new PackedByteRowWriter(raster, pixels);
+            } else if (sampleModel instanceof ComponentSampleModel) {
+                return new ByteComponentRowWriter(raster, samples);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the given color model is an {@link IndexColorModel}
+     *         whose indices correspond to those of the given colors.
+     */
+    static boolean isPaletteColorModel(ColorModel colorModel,
+                                       int[] colors) {
+        if (!(colorModel instanceof IndexColorModel)) {
+            return false;
+        }
+        IndexColorModel indexColorModel = (IndexColorModel) colorModel;
+        if (indexColorModel.getMapSize() < colors.length) {
+            return false;
+        }
+        for (int i = 0; i < colors.length; i++) {
+            if (indexColorModel.getRGB(i) != colors[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an instance that writes into the same destination with the same
+     * colors, for use by another thread writing into different rows. The
+     * converted colors are shared rather than converted again, and instances
+     * that have no mutable state return themselves.
+     */
+    RowWriter copy() {
+        return this;
+    }
+
+    /**
+     * @param indices Palette indices, of which negative values indicate that
+     *                the corresponding pixel should be left untouched.
+     * @param length  Number of indices to write.
+     * @param destX   Column in the destination image of the first index.
+     * @param destY   Row in the destination image.
+     */
+    abstract void write(int[] indices, int length, int destX, int destY);
+
+}
@@ -0,0 +1,253 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * <p>Builds power-of-two reductions of an image from its rows, which are
+ * added in order from top to bottom.</p>
+ *
+ * <p>Thumbnail {@literal i} is reduced by a factor of 2<sup>i+1</sup> in
+ * both dimensions, rounding up, and each of its pixels is the box-filtered
+ * average of the corresponding block of image pixels, weighted by alpha.
+ * Each reduction is built from the block sums of the previous one, so every
+ * image pixel is visited once regardless of the number of thumbnails.</p>
+ */
+final class ThumbnailBuilder {
+
+    /**
+     * Thumbnails are offered down to the smallest one whose longer side is
+     * at least this long.
+     */
+    static final int MIN_THUMBNAIL_SIZE = 16;
+
+    /**
+     * Accumulates pairs of rows of block sums from the previous reduction
+     * (or the image) into one row of its own.
+     */
+    private static final class Level {
+
+        private final int width;
+        private final int[] pixels;
+        private final long[] sumA, sumR, sumG, sumB;
+        private final int[] counts;
+        private final Level next;
+        private final BufferedImage image;
+        private int numRows, y;
+
+        Level(int width, int height, Level next) {
+            this.width  = width;
+            this.next   = next;
+            this.image  = new BufferedImage(width, height,
+                    BufferedImage.TYPE_INT_ARGB);
+            this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            this.sumA   = new long[width];
+            this.sumR   = new long[width];
+            this.sumG   = new long[width];
+            this.sumB   = new long[width];
+            this.counts = new int[width];
+        }
+
+        void add(long[] a, long[] r, long[] g, long[] b, int[] n, int length) {
+            for (int x = 0; x < length; x++) {
+                final int tx = x >> 1;
+                sumA[tx]   += a[x];
+                sumR[tx]   += r[x];
+                sumG[tx]   += g[x];
+                sumB[tx]   += b[x];
+                counts[tx] += n[x];
+            }
+            if (++numRows == 2) {
+                emit();
+            }
+        }
+
+        private void emit() {
+            if (numRows == 0) {
+                return;
+            }
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                final long a = sumA[x];
+                final int n  = counts[x];
+                pixels[i] = (a == 0) ? 0 :
+                        (int) ((a + n / 2) / n) << 24 |
+                        (int) ((sumR[x] + a / 2) / a) << 16 |
+                        (int) ((sumG[x] + a / 2) / a) << 8 |
+                        (int) ((sumB[x] + a / 2) / a);
+            }
+            if (next != null) {
+                next.add(sumA, sumR, sumG, sumB, counts, width);
+            }
+            Arrays.fill(sumA, 0);
+            Arrays.fill(sumR, 0);
+            Arrays.fill(sumG, 0);
+            Arrays.fill(sumB, 0);
+            Arrays.fill(counts, 0);
+            numRows = 0;
+            y++;
+        }
+
+        void finish() {
+            emit();
+            if (next != null) {
+                next.finish();
+            }
+        }
+    }
+
+    /**
+     * Writes rows of palette indices into a builder as rows of colors, and
+     * optionally also into another writer.
+     */
+    private final class ThumbnailRowWriter extends RowWriter {
+
+        private final int[] colors;
+        private final RowWriter downstream;
+
+        ThumbnailRowWriter(int[] colors, RowWriter downstream) {
+            this.colors     = colors;
+            this.downstream = downstream;
+        }
+
+        @Override
+        void write(int[] indices, int length, int destX, int destY) {
+            if (downstream != null) {
+                downstream.write(indices, length, destX, destY);
+            }
+            while (numRows < destY) {
+                addRow(row, 0);
+            }
+            for (int i = 0; i < length; i++) {
+                final int index = indices[i];
+                row[destX + i] = (index >= 0) ? colors[index] : 0;
+            }
+            addRow(row, destX + length);
+        }
+    }
+
+    private final int width, height;
+    private final Level first;
+    private final Level[] levels;
+    private final int[] row;
+    private final long[] rowA, rowR, rowG, rowB;
+    private final int[] rowCounts;
+    private int numRows;
+
+    /**
+     * @return Number of thumbnails offered for an image of the given size:
+     *         the reductions down to the smallest one whose longer side is
+     *         at least {@link #MIN_THUMBNAIL_SIZE}, or just the first
+     *         reduction if even that is smaller, or none for a single pixel.
+     */
+    static int getNumThumbnails(int width, int height) {
+        final long size = Math.max(width, height);
+        if (size < 2) {
+            return 0;
+        }
+        int count = 0;
+        while (count < 31 && ((size + (1L << (count + 1)) - 1) >> (count + 1))
+                >= MIN_THUMBNAIL_SIZE) {
+            count++;
+        }
+        return Math.max(1, count);
+    }
+
+    /**
+     * @return Width or height of a thumbnail of an image of the given width
+     *         or height.
+     */
+    static int getThumbnailSize(int imageSize, int thumbnailIndex) {
+        final int shift = thumbnailIndex + 1;
+        return (int) (((long) imageSize + (1L << shift) - 1) >> shift);
+    }
+
+    /**
+     * @return Total number of pixels of the first {@literal numThumbnails}
+     *         thumbnails of an image of the given size.
+     */
+    static long getNumPixels(int width, int height, int numThumbnails) {
+        long numPixels = 0;
+        for (int i = 0; i < numThumbnails; i++) {
+            numPixels += (long) getThumbnailSize(width, i) *
+                    getThumbnailSize(height, i);
+        }
+        return numPixels;
+    }
+
+    /**
+     * @param width         Image width.
+     * @param height        Image height.
+     * @param numThumbnails Number of reductions to build.
+     */
+    ThumbnailBuilder(int width, int height, int numThumbnails) {
+        this.width  = width;
+        this.height = height;
+        levels = new Level[numThumbnails];
+        Level next = null;
+        for (int i = numThumbnails - 1; i >= 0; i--) {
+            next = levels[i] = new Level(getThumbnailSize(width, i),
+                    getThumbnailSize(height, i), next);
+        }
+        first     = levels[0];
+        row       = new int[width];
+        rowA      = new long[width];
+        rowR      = new long[width];
+        rowG      = new long[width];
+        rowB      = new long[width];
+        rowCounts = new int[width];
+        Arrays.fill(rowCounts, 1);
+    }
+
+    /**
+     * @param argb   ARGB colors of the next row of the image.
+     * @param length Number of colors in the row, beyond which its pixels are
+     *               transparent.
+     */
+    void addRow(int[] argb, int length) {
+        if (numRows >= height) {
+            return;
+        }
+        for (int x = 0; x < width; x++) {
+            final int color = (x < length) ? argb[x] : 0;
+            final long a = color >>> 24;
+            rowA[x] = a;
+            rowR[x] = ((color >> 16) & 0xff) * a;
+            rowG[x] = ((color >> 8) & 0xff) * a;
+            rowB[x] = (color & 0xff) * a;
+        }
+        first.add(rowA, rowR, rowG, rowB, rowCounts, width);
+        numRows++;
+    }
+
+    /**
+     * @param colors     ARGB color of each palette index.
+     * @param downstream Writer to which rows are also written, or {@code
+     *                   null}.
+     * @return           Writer that adds rows of palette indices, whose
+     *                   destination rows and columns are those of the image,
+     *                   to the instance.
+     */
+    RowWriter createRowWriter(int[] colors, RowWriter downstream) {
+        return new ThumbnailRowWriter(colors, downstream);
+    }
+
+    /**
+     * Treats any rows that have not been added as transparent, and completes
+     * the thumbnails.
+     *
+     * @return Thumbnails in order of decreasing size.
+     */
+    BufferedImage[] finish() {
+        while (numRows < height) {
+            addRow(row, 0);
+        }
+        first.finish();
+        final BufferedImage[] thumbnails = new BufferedImage[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            thumbnails[i] = levels[i].image;
+        }
+        return thumbnails;
+    }
+
+}
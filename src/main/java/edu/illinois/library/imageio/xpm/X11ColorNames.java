@@ -0,0 +1,90 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.util.Arrays;
+
+/**
+ * <p>Case-insensitive lookup of X11 color names.</p>
+ *
+ * <p>The names are compiled from {@literal rgb.txt} into {@link
+ * X11ColorTable} at build time, so nothing is read or parsed at runtime.
+ * Lookups are binary searches of its sorted names, which can also be done
+ * directly against bytes in a buffer.</p>
+ */
+final class X11ColorNames {
+
+    /**
+     * Returned by {@link #get(String)} for unknown names. No named color is
+     * transparent, so this never coincides with a known one.
+     */
+    static final int NOT_FOUND = 0;
+
+    /**
+     * @param name Color name in any case, such as {@literal LightSteelBlue3}
+     *             or {@literal light steel blue}.
+     * @return     ARGB color, or {@link #NOT_FOUND} if the name is unknown.
+     */
+    static int get(String name) {
+        final int index = Arrays.binarySearch(X11ColorTable.NAMES, name,
+                String.CASE_INSENSITIVE_ORDER);
+        return (index >= 0) ? X11ColorTable.COLORS[index] : NOT_FOUND;
+    }
+
+    /**
+     * Equivalent to {@link #get(String)} for a name in a byte buffer, which
+     * is looked up in place.
+     *
+     * @param bytes Buffer containing a color name.
+     * @param start Offset of the name within the buffer.
+     * @param end   Offset following the name within the buffer.
+     * @return      ARGB color, or {@link #NOT_FOUND} if the name is unknown.
+     */
+    static int get(byte[] bytes, int start, int end) {
+        final String[] names = X11ColorTable.NAMES;
+        int low = 0, high = names.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareIgnoreCase(names[mid], bytes, start, end);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return X11ColorTable.COLORS[mid];
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Compares an ASCII name to the ISO-8859-1 bytes of another name in the
+     * same way as {@link String#CASE_INSENSITIVE_ORDER}.
+     */
+    private static int compareIgnoreCase(String name,
+                                         byte[] bytes,
+                                         int start,
+                                         int end) {
+        final int length = Math.min(name.length(), end - start);
+        for (int i = 0; i < length; i++) {
+            final char c1 = name.charAt(i);
+            final char c2 = (char) (bytes[start + i] & 0xff);
+            if (c1 != c2) {
+                final int cmp = Character.toLowerCase(Character.toUpperCase(c1)) -
+                        Character.toLowerCase(Character.toUpperCase(c2));
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+        }
+        return name.length() - (end - start);
+    }
+
+    /**
+     * @return Number of known names.
+     */
+    static int size() {
+        return X11ColorTable.NAMES.length;
+    }
+
+    private X11ColorNames() {}
+
+}
@@ -0,0 +1,87 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Immutable snapshot of everything that {@link XPMImageReader} parses
+ * before the pixel section: the values line, the color map, and the compiled
+ * palette.</p>
+ *
+ * <p>All effective colors are computed up front, so that instances can be
+ * shared among readers in different threads via {@link XPMHeaderCache}.</p>
+ */
+final class XPMHeader {
+
+    private final int width, height, numColors, numCharsPerPixel;
+    private final Map<String,XPMPixel> colorMap;
+    private final XPMPalette palette;
+    private final long pixelDataOffset;
+
+    /**
+     * @param colorMap        Color map, which is copied.
+     * @param palette         Palette compiled from the color map, or {@code
+     *                        null} if the number of characters per pixel is
+     *                        not supported by {@link XPMPalette}.
+     * @param pixelDataOffset Offset of the pixel section relative to the
+     *                        start of the stream.
+     */
+    XPMHeader(int width,
+              int height,
+              int numColors,
+              int numCharsPerPixel,
+              Map<String,XPMPixel> colorMap,
+              XPMPalette palette,
+              long pixelDataOffset) {
+        this.width            = width;
+        this.height           = height;
+        this.numColors        = numColors;
+        this.numCharsPerPixel = numCharsPerPixel;
+        this.colorMap         = Collections.unmodifiableMap(new HashMap<>(colorMap));
+        this.palette          = palette;
+        this.pixelDataOffset  = pixelDataOffset;
+        // XPMPixel and XPMPalette compute their colors lazily, so do it now
+        // while the instance is still confined to this thread.
+        for (DisplayType displayType : DisplayType.values()) {
+            for (XPMPixel pixel : colorMap.values()) {
+                pixel.getEffectiveColor(displayType);
+            }
+            if (palette != null) {
+                palette.getColors(displayType);
+            }
+        }
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getNumColors() {
+        return numColors;
+    }
+
+    int getNumCharsPerPixel() {
+        return numCharsPerPixel;
+    }
+
+    /**
+     * @return Unmodifiable color map.
+     */
+    Map<String,XPMPixel> getColorMap() {
+        return colorMap;
+    }
+
+    XPMPalette getPalette() {
+        return palette;
+    }
+
+    long getPixelDataOffset() {
+        return pixelDataOffset;
+    }
+
+}
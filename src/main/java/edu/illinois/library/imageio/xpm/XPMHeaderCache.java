@@ -0,0 +1,120 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Process-wide cache of parsed image headers (dimensions, color maps, and
+ * compiled palettes), shared by all {@link XPMImageReader}s.</p>
+ *
+ * <p>Caching is opt-in: a reader only consults the cache when it has been
+ * given a key via {@link XPMImageReader#setHeaderCacheKey(Object)}. The key
+ * is supplied by the client and must uniquely identify the content of the
+ * input, for example a combination of a file's path and last-modified time,
+ * or a content hash. The cache holds up to {@link #getMaxSize()} headers,
+ * evicting the least recently used ones beyond that.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public final class XPMHeaderCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static final XPMHeaderCache INSTANCE = new XPMHeaderCache();
+
+    private final Map<Object,XPMHeader> headers =
+            new LinkedHashMap<Object,XPMHeader>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object,XPMHeader> eldest) {
+                    return size() > maxSize;
+                }
+            };
+
+    private final AtomicLong hitCount = new AtomicLong(), missCount = new AtomicLong();
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * @return Shared instance.
+     */
+    public static XPMHeaderCache getInstance() {
+        return INSTANCE;
+    }
+
+    XPMHeaderCache() {}
+
+    /**
+     * Removes all headers from the cache. The hit and miss counts are not
+     * reset.
+     */
+    public synchronized void clear() {
+        headers.clear();
+    }
+
+    /**
+     * @return Header associated with the given key, or {@code null} if none
+     *         is cached. Either way, the hit or miss count is incremented.
+     */
+    synchronized XPMHeader get(Object key) {
+        XPMHeader header = headers.get(key);
+        if (header != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return header;
+    }
+
+    /**
+     * @return Number of times a header was found in the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return Number of times a header was looked up but not found in the
+     *         cache.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    synchronized void put(Object key, XPMHeader header) {
+        headers.put(key, header);
+    }
+
+    /**
+     * Sets the maximum number of headers to hold, evicting the least recently
+     * used ones if the cache is currently larger. A value of {@literal 0}
+     * effectively disables the cache.
+     *
+     * @param maxSize Maximum number of headers.
+     * @throws IllegalArgumentException if the argument is negative.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize cannot be negative");
+        }
+        this.maxSize = maxSize;
+        Iterator<Object> it = headers.keySet().iterator();
+        while (headers.size() > maxSize) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return Number of headers currently held.
+     */
+    public synchronized int size() {
+        return headers.size();
+    }
+
+}
@@ -0,0 +1,303 @@
+package edu.illinois.library.imageio.xpm;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Cache of decoded images, for when the same images are decoded
+ * repeatedly with the same parameters.</p>
+ *
+ * <p>Images are keyed by a client-supplied source key, which must uniquely
+ * identify the content of the source (for example a combination of a file's
+ * path and last-modified time, or a content hash), together with the {@link
+ * DisplayType}, resource limits, source region, subsampling, destination
+ * offset, and destination type of the read parameters. Images are held in
+ * an access-ordered {@link LinkedHashMap}, so a hit costs a single lookup
+ * and eviction takes constant time per evicted image. Decoding takes place
+ * outside of the lock that guards the map.</p>
+ *
+ * <p>The cache is bounded by the total size in bytes of the images' data
+ * buffers. When a new image would exceed it, the least recently used images
+ * are evicted. Images that are larger than the maximum by themselves are
+ * never cached.</p>
+ *
+ * <p>N.B.: the same {@link BufferedImage} instance is returned to every
+ * caller, so it must not be modified.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public final class XPMImageCache {
+
+    /**
+     * Supplies the stream to decode on a cache miss.
+     */
+    @FunctionalInterface
+    public interface InputSupplier {
+        ImageInputStream get() throws IOException;
+    }
+
+    private static final class Key {
+
+        private final Object sourceKey;
+        private final DisplayType displayType;
+        private final boolean isLegacyDecoderEnabled;
+        private final long maxPixels, maxBytes;
+        private final int maxColors;
+        private final Rectangle sourceRegion;
+        private final int xSubsampling, ySubsampling, xOffset, yOffset;
+        private final Point destinationOffset;
+        private final ImageTypeSpecifier destinationType;
+
+        Key(Object sourceKey, ImageReadParam param) {
+            this.sourceKey = sourceKey;
+            if (param instanceof XPMImageReadParam) {
+                XPMImageReadParam xpmParam = (XPMImageReadParam) param;
+                this.displayType            = xpmParam.getDisplayType();
+                this.isLegacyDecoderEnabled = xpmParam.isLegacyDecoderEnabled();
+                this.maxPixels              = xpmParam.getMaxPixels();
+                this.maxColors              = xpmParam.getMaxColors();
+                this.maxBytes               = xpmParam.getMaxBytes();
+            } else {
+                this.displayType            = DisplayType.COLOR;
+                this.isLegacyDecoderEnabled = false;
+                this.maxPixels = XPMImageReadParam.getDefaultMaxPixels();
+                this.maxColors = XPMImageReadParam.getDefaultMaxColors();
+                this.maxBytes  = XPMImageReadParam.getDefaultMaxBytes();
+            }
+            if (param != null) {
+                // These getters return copies.
+                this.sourceRegion      = param.getSourceRegion();
+                this.xSubsampling      = param.getSourceXSubsampling();
+                this.ySubsampling      = param.getSourceYSubsampling();
+                this.xOffset           = param.getSubsamplingXOffset();
+                this.yOffset           = param.getSubsamplingYOffset();
+                this.destinationOffset = param.getDestinationOffset();
+                this.destinationType   = param.getDestinationType();
+            } else {
+                this.sourceRegion      = null;
+                this.xSubsampling      = 1;
+                this.ySubsampling      = 1;
+                this.xOffset           = 0;
+                this.yOffset           = 0;
+                this.destinationOffset = new Point();
+                this.destinationType   = null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return sourceKey.equals(other.sourceKey) &&
+                    displayType == other.displayType &&
+                    isLegacyDecoderEnabled == other.isLegacyDecoderEnabled &&
+                    maxPixels == other.maxPixels &&
+                    maxColors == other.maxColors &&
+                    maxBytes == other.maxBytes &&
+                    Objects.equals(sourceRegion, other.sourceRegion) &&
+                    xSubsampling == other.xSubsampling &&
+                    ySubsampling == other.ySubsampling &&
+                    xOffset == other.xOffset &&
+                    yOffset == other.yOffset &&
+                    destinationOffset.equals(other.destinationOffset) &&
+                    Objects.equals(destinationType, other.destinationType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sourceKey, displayType, isLegacyDecoderEnabled,
+                    maxPixels, maxColors, maxBytes, sourceRegion,
+                    xSubsampling, ySubsampling, xOffset, yOffset,
+                    destinationOffset, destinationType);
+        }
+    }
+
+    private static final class Entry {
+
+        private final BufferedImage image;
+        private final long size;
+
+        Entry(BufferedImage image, long size) {
+            this.image = image;
+            this.size  = size;
+        }
+    }
+
+    private final long maxSize;
+
+    /**
+     * Entries in order of access, least recently used first. Guarded by
+     * {@link #lock}.
+     */
+    private final Map<Key,Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Total size of {@link #entries}. Guarded by {@link #lock}.
+     */
+    private long size;
+
+    private final AtomicLong hitCount  = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final Object lock          = new Object();
+
+    /**
+     * @param maxSize Maximum total size of all cached images' data buffers,
+     *                in bytes.
+     * @throws IllegalArgumentException if the argument is negative.
+     */
+    public XPMImageCache(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize cannot be negative");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return Size of the given image's data buffer in bytes.
+     */
+    static long sizeOf(BufferedImage image) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        return (long) dataBuffer.getSize() * dataBuffer.getNumBanks() *
+                DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+    }
+
+    /**
+     * Removes all images from the cache. The hit and miss counts are not
+     * reset.
+     */
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * @return Number of times an image was found in the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return Maximum total size of all cached images in bytes.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return Number of times an image was not found in the cache and had to
+     *         be decoded.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return Current total size of all cached images in bytes.
+     */
+    public long getSize() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * @return Number of images currently held.
+     */
+    public int getNumImages() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * <p>Returns the cached image corresponding to the given arguments, or
+     * decodes and caches it if there isn't one.</p>
+     *
+     * <p>Reads into a {@link ImageReadParam#setDestination(BufferedImage)
+     * destination image} are not cached.</p>
+     *
+     * @param sourceKey Key uniquely identifying the content of the source.
+     * @param param     Read parameters, which may be {@code null}.
+     * @param input     Supplies the stream to decode on a miss. The stream
+     *                  is closed afterwards.
+     * @return          Decoded image, which must not be modified.
+     */
+    public BufferedImage read(Object sourceKey,
+                              ImageReadParam param,
+                              InputSupplier input) throws IOException {
+        if (sourceKey == null) {
+            throw new NullPointerException("sourceKey cannot be null");
+        }
+        if (param != null && param.getDestination() != null) {
+            return decode(param, input);
+        }
+        final Key key = new Key(sourceKey, param);
+        synchronized (lock) {
+            // In an access-ordered map, this also marks the entry as the
+            // most recently used.
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hitCount.incrementAndGet();
+                return entry.image;
+            }
+        }
+        missCount.incrementAndGet();
+
+        final BufferedImage image = decode(param, input);
+        final long imageSize      = sizeOf(image);
+        if (imageSize <= maxSize) {
+            synchronized (lock) {
+                Entry previous = entries.put(key, new Entry(image, imageSize));
+                size += imageSize - ((previous != null) ? previous.size : 0);
+                evict();
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage decode(ImageReadParam param,
+                                        InputSupplier input)
+            throws IOException {
+        try (ImageInputStream is = input.get()) {
+            XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+            try {
+                reader.setInput(is);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used images until the total size is within
+     * the maximum. Must be called while holding {@link #lock}.
+     */
+    private void evict() {
+        final Iterator<Entry> it = entries.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= it.next().size;
+            it.remove();
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.awt.Point;
+
+/**
+ * Contents of the values line of an XPM image, as returned by {@link
+ * XPMImageReader#probe(javax.imageio.stream.ImageInputStream)}.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class XPMImageInfo {
+
+    private final int width, height, numColors, numCharsPerPixel;
+    private final Point hotspot;
+
+    XPMImageInfo(int width,
+                 int height,
+                 int numColors,
+                 int numCharsPerPixel,
+                 Point hotspot) {
+        this.width            = width;
+        this.height           = height;
+        this.numColors        = numColors;
+        this.numCharsPerPixel = numCharsPerPixel;
+        this.hotspot          = hotspot;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumColors() {
+        return numColors;
+    }
+
+    public int getNumCharsPerPixel() {
+        return numCharsPerPixel;
+    }
+
+    /**
+     * @return Hotspot coordinates, or {@code null} if the image does not
+     *         declare any.
+     */
+    public Point getHotspot() {
+        return (hotspot != null) ? new Point(hotspot) : null;
+    }
+
+    @Override
+    public String toString() {
+        String string = width + "x" + height + ", " + numColors + " colors, " +
+                numCharsPerPixel + " chars/pixel";
+        if (hotspot != null) {
+            string += ", hotspot " + hotspot.x + "," + hotspot.y;
+        }
+        return string;
+    }
+
+}
@@ -1,16 +1,153 @@
 package edu.illinois.library.imageio.xpm;
 
 import javax.imageio.ImageReadParam;
+import java.util.concurrent.Executor;
 
+/**
+ * <p>Read parameter with XPM-specific decoding options.</p>
+ *
+ * <p>Instances also carry resource limits, which are checked before any
+ * large allocation and cause reads of images that exceed them to fail with
+ * an {@link javax.imageio.IIOException}. They are initialized from the
+ * system-wide defaults, which also apply to reads with a parameter of any
+ * other class, or none.</p>
+ */
 @SuppressWarnings("WeakerAccess")
 public class XPMImageReadParam extends ImageReadParam {
 
+    private static volatile long defaultMaxPixels = 1L << 26;
+    private static volatile int defaultMaxColors  = 1 << 16;
+    private static volatile long defaultMaxBytes  = 1L << 30;
+
     private DisplayType displayType = DisplayType.COLOR;
+    private boolean isLegacyDecoderEnabled;
+    private int numDecoderThreads = 1;
+    private Executor decoderExecutor;
+    private long maxPixels = defaultMaxPixels;
+    private int maxColors  = defaultMaxColors;
+    private long maxBytes  = defaultMaxBytes;
+
+    /**
+     * @return System-wide default of {@link #getMaxBytes()}. The initial
+     *         value is 1 GB.
+     */
+    public static long getDefaultMaxBytes() {
+        return defaultMaxBytes;
+    }
+
+    /**
+     * @return System-wide default of {@link #getMaxColors()}. The initial
+     *         value is 2<sup>16</sup>.
+     */
+    public static int getDefaultMaxColors() {
+        return defaultMaxColors;
+    }
+
+    /**
+     * @return System-wide default of {@link #getMaxPixels()}. The initial
+     *         value is 2<sup>26</sup>, the area of an 8192&times;8192
+     *         image.
+     */
+    public static long getDefaultMaxPixels() {
+        return defaultMaxPixels;
+    }
+
+    /**
+     * Sets the system-wide default of {@link #getMaxBytes()}, which applies
+     * to instances created afterward.
+     *
+     * @throws IllegalArgumentException if the argument is less than 1.
+     */
+    public static void setDefaultMaxBytes(long maxBytes) {
+        defaultMaxBytes = requirePositive(maxBytes, "maxBytes");
+    }
+
+    /**
+     * Sets the system-wide default of {@link #getMaxColors()}, which applies
+     * to instances created afterward.
+     *
+     * @throws IllegalArgumentException if the argument is less than 1.
+     */
+    public static void setDefaultMaxColors(int maxColors) {
+        defaultMaxColors = (int) requirePositive(maxColors, "maxColors");
+    }
+
+    /**
+     * Sets the system-wide default of {@link #getMaxPixels()}, which applies
+     * to instances created afterward.
+     *
+     * @throws IllegalArgumentException if the argument is less than 1.
+     */
+    public static void setDefaultMaxPixels(long maxPixels) {
+        defaultMaxPixels = requirePositive(maxPixels, "maxPixels");
+    }
+
+    private static long requirePositive(long value, String name) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1");
+        }
+        return value;
+    }
+
+    /**
+     * @return Executor on which rows are decoded when {@link
+     *         #getNumDecoderThreads()} is greater than 1, or {@code null}.
+     */
+    public Executor getDecoderExecutor() {
+        return decoderExecutor;
+    }
 
     public DisplayType getDisplayType() {
         return displayType;
     }
 
+    /**
+     * @return Maximum number of bytes that may be read from the start of the
+     *         XPM data in the input.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Maximum number of colors that the header may declare.
+     */
+    public int getMaxColors() {
+        return maxColors;
+    }
+
+    /**
+     * @return Maximum number of pixels in the image, raster, or rows that a
+     *         read may allocate.
+     */
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    /**
+     * @return Number of threads among which decoding of the pixel data is
+     *         divided. The default is 1.
+     */
+    public int getNumDecoderThreads() {
+        return numDecoderThreads;
+    }
+
+    public boolean isLegacyDecoderEnabled() {
+        return isLegacyDecoderEnabled;
+    }
+
+    /**
+     * Sets the executor on which the pixel data is decoded when more than one
+     * {@link #setNumDecoderThreads(int) decoder thread} is requested. If
+     * none is set, a pool of that many threads is created for the duration
+     * of each read.
+     *
+     * @param executor Executor, or {@code null} to use a temporary pool.
+     */
+    public void setDecoderExecutor(Executor executor) {
+        this.decoderExecutor = executor;
+    }
+
     /**
      * <p>Selects a display type for decoding. Colors for that display type
      * are used if possible, falling back to other display types according to
@@ -54,4 +191,68 @@ public class XPMImageReadParam extends ImageReadParam {
         this.displayType = displayType;
     }
 
+    /**
+     * <p>Enables or disables the original decoding path, which creates a
+     * {@link String} for every pixel and is much slower. This is intended
+     * mainly for comparing output and performance with the default decoding
+     * path. It reads and samples rows exactly as the default path does, so
+     * the output is the same.</p>
+     */
+    public void setLegacyDecoderEnabled(boolean isEnabled) {
+        this.isLegacyDecoderEnabled = isEnabled;
+    }
+
+    /**
+     * @param maxBytes Maximum number of bytes that may be read from the
+     *                 start of the XPM data in the input.
+     * @throws IllegalArgumentException if the argument is less than 1.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = requirePositive(maxBytes, "maxBytes");
+    }
+
+    /**
+     * @param maxColors Maximum number of colors that the header may declare.
+     *                  This is checked before the color map is read.
+     * @throws IllegalArgumentException if the argument is less than 1.
+     */
+    public void setMaxColors(int maxColors) {
+        this.maxColors = (int) requirePositive(maxColors, "maxColors");
+    }
+
+    /**
+     * @param maxPixels Maximum number of pixels in the image, raster, or
+     *                  rows that a read may allocate. This is checked before
+     *                  the allocation, and is not applied to a {@link
+     *                  #setDestination(java.awt.image.BufferedImage)
+     *                  destination} supplied by the caller.
+     * @throws IllegalArgumentException if the argument is less than 1.
+     */
+    public void setMaxPixels(long maxPixels) {
+        this.maxPixels = requirePositive(maxPixels, "maxPixels");
+    }
+
+    /**
+     * <p>Enables parallel decoding of the pixel data. When the argument is
+     * greater than 1, the rows are split into bands as they are read from
+     * the stream, and the bands are decoded concurrently into disjoint rows
+     * of the destination image, either on the {@link
+     * #setDecoderExecutor(Executor) decoder executor} or on a temporary pool
+     * of the given number of threads. The result is identical to that of
+     * sequential decoding.</p>
+     *
+     * <p>Parallel decoding requires a copy of the pixel data that is being
+     * decoded, and is only worthwhile for large images. It is not supported
+     * by the {@link #setLegacyDecoderEnabled(boolean) legacy decoder}.</p>
+     *
+     * @param numThreads Number of threads.
+     * @throws IllegalArgumentException if the argument is less than 1.
+     */
+    public void setNumDecoderThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1");
+        }
+        this.numDecoderThreads = numThreads;
+    }
+
 }
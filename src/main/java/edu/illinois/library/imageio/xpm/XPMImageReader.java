@@ -1,26 +1,34 @@
 package edu.illinois.library.imageio.xpm;
 
 import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * <p>Implementation supporting the XPM format version 3.</p>
@@ -30,46 +38,258 @@ import java.util.regex.Pattern;
  */
 public final class XPMImageReader extends ImageReader {
 
-    private static final Logger LOGGER =
-            Logger.getLogger(XPMImageReader.class.getName());
+    /**
+     * Receives rows from {@link #readRows}.
+     *
+     * @see RowDecoder#decode(byte[], int, int, int)
+     */
+    @FunctionalInterface
+    private interface RowConsumer {
+        void accept(byte[] buffer, int rowStart, int rowEnd, int destY)
+                throws IOException;
+    }
+
+    /**
+     * Notified by {@link #readRows} of consecutive destination rows that
+     * have been written since the last notification.
+     */
+    @FunctionalInterface
+    private interface UpdateListener {
+        void rowsWritten(int destMinY, int numRows);
+    }
+
+    /**
+     * Number of source rows between checks for {@link #abort() abort
+     * requests} and progress notifications.
+     */
+    private static final int PROGRESS_INTERVAL = 32;
 
-    private static final Pattern COLOR_PATTERN =
-            Pattern.compile("(m|s|g|g4|c)\\s+");
-    private static final Pattern VALUES_PATTERN =
-            Pattern.compile("\"\\s*(\\d+)\\s+(\\d+)\\s+(\\d+)\\s+(\\d+).*");
+    /**
+     * Size of the chunks in which {@link #probe} reads its stream. The
+     * signature and values lines, plus a typical C declaration and comment,
+     * fit well within it.
+     */
+    private static final int PROBE_BUFFER_SIZE = 256;
+
+    private ImageInputStreamScanner scanner;
+
+    /**
+     * Stream opened by the reader over a {@link File} or {@link Path} input,
+     * which is closed by {@link #resetState()}.
+     */
+    private ImageInputStream ownedStream;
 
-    private BufferedReader reader;
+    /**
+     * Stream position at which the {@link #scanner} was created.
+     */
+    private long streamStartOffset;
+
+    /**
+     * Key under which the header is looked up in and stored into the {@link
+     * XPMHeaderCache}, or {@code null} to bypass the cache.
+     */
+    private Object headerCacheKey;
 
     private int width, height, numColors, numCharsPerPixel;
     private final Map<String, XPMPixel> colorMap = new HashMap<>();
+    private XPMPalette palette;
     private boolean isWithinComment;
 
+    /**
+     * Thumbnails built by {@link #readThumbnail} or {@link #readAll}, or
+     * {@code null} if they have not been built yet.
+     */
+    private BufferedImage[] thumbnails;
+
+    /**
+     * Builder to which {@link #readBytes} also writes the rows that it
+     * decodes, during a {@link #readAll} that builds the thumbnails in the
+     * same pass. {@code null} at all other times.
+     */
+    private ThumbnailBuilder thumbnailBuilder;
+
+    /**
+     * Stream position following the color map, or {@literal -1} if it has
+     * not been read yet.
+     */
+    private long pixelDataOffset = -1;
+
+    /**
+     * Stream position of the opening quote of each pixel row, of which the
+     * first {@link #numIndexedRows} are known. Filled in as rows are scanned
+     * by {@link #readBytes}, so that subsequent reads can seek directly to
+     * the first row they need.
+     */
+    private long[] rowOffsets = new long[0];
+    private int numIndexedRows;
+
     XPMImageReader(XPMImageReaderSpi spi) {
         super(spi);
     }
 
-    private void createReader() {
-        if (reader == null) {
-            reader = new BufferedReader(
-                    new InputStreamReader(
-                            new ImageInputStreamWrapper((ImageInputStream) input)));
+    /**
+     * <p>Reads only as much of the given stream as is needed to obtain the
+     * contents of the values line: the dimensions, number of colors, number
+     * of characters per pixel, and hotspot. This is much cheaper than
+     * setting up a reader, which makes it suitable for scanning large
+     * numbers of files.</p>
+     *
+     * <p>The stream is read from its current position, to which it is
+     * returned afterward. {@link XPMImageReadParam#getDefaultMaxBytes()}
+     * limits how far ahead of it the values line is searched for.</p>
+     *
+     * @param inputStream Stream to probe.
+     * @return            Image info, or {@code null} if the stream does not
+     *                    begin with the XPM signature.
+     * @throws IIOException if the stream does not contain a valid values
+     *         line.
+     */
+    public static XPMImageInfo probe(ImageInputStream inputStream)
+            throws IOException {
+        if (!XPMImageReaderSpi.hasSignature(inputStream)) {
+            return null;
+        }
+        inputStream.mark();
+        try {
+            final ImageInputStreamScanner scanner =
+                    new ImageInputStreamScanner(inputStream, PROBE_BUFFER_SIZE);
+            final long start    = scanner.position();
+            final long maxBytes = XPMImageReadParam.getDefaultMaxBytes();
+            scanner.setMaxPosition((maxBytes > Long.MAX_VALUE - start) ?
+                    Long.MAX_VALUE : start + maxBytes);
+            final int[] values = new int[6];
+            while (scanner.nextLine()) {
+                final byte[] bytes = scanner.buffer();
+                final int lineStart = trimStart(bytes, scanner.sliceStart(), scanner.sliceEnd());
+                final int lineEnd   = trimEnd(bytes, lineStart, scanner.sliceEnd());
+                if (lineStart == lineEnd ||
+                        startsWithComment(bytes, lineStart, lineEnd)) {
+                    continue;
+                }
+                final int numValues = parseValues(bytes, lineStart, lineEnd,
+                        values);
+                if (numValues > 0) {
+                    return new XPMImageInfo(values[0], values[1], values[2],
+                            values[3], (numValues == 6) ?
+                            new Point(values[4], values[5]) : null);
+                }
+            }
+            throw new IIOException("Missing values line");
+        } finally {
+            inputStream.reset();
         }
     }
 
+    private void createScanner() throws IOException {
+        if (scanner == null) {
+            scanner = new ImageInputStreamScanner(getInputStream());
+            streamStartOffset = scanner.position();
+            setMaxBytes(XPMImageReadParam.getDefaultMaxBytes());
+        }
+    }
+
+    /**
+     * Limits the {@link #scanner} to the given number of bytes from the
+     * start of the XPM data.
+     */
+    private void setMaxBytes(long maxBytes) {
+        scanner.setMaxPosition(
+                (maxBytes > Long.MAX_VALUE - streamStartOffset) ?
+                        Long.MAX_VALUE : streamStartOffset + maxBytes);
+    }
+
+    /**
+     * Raises the {@link #scanner}'s line length limit, which otherwise
+     * suffices for the header, to allow for a pixel row, plus the same
+     * again for any quotes, commas, and comments around it.
+     */
+    private void setMaxRowLength() {
+        scanner.setMaxLineLength((long) width * numCharsPerPixel +
+                ImageInputStreamScanner.DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    /**
+     * @return The input, if it is an {@link ImageInputStream}; otherwise, a
+     *         stream over the input {@link File} or {@link Path}, which is
+     *         memory-mapped if it is no larger than {@link
+     *         MappedFileImageInputStream#MAX_SIZE}.
+     */
+    private ImageInputStream getInputStream() throws IOException {
+        if (input == null) {
+            throw new IllegalStateException("Input has not been set");
+        } else if (input instanceof ImageInputStream) {
+            return (ImageInputStream) input;
+        }
+        if (ownedStream == null) {
+            final Path path = (input instanceof File) ?
+                    ((File) input).toPath() : (Path) input;
+            ownedStream = (Files.size(path) <= MappedFileImageInputStream.MAX_SIZE) ?
+                    new MappedFileImageInputStream(path) :
+                    new FileImageInputStream(path.toFile());
+        }
+        return ownedStream;
+    }
+
+    /**
+     * N.B.: an {@link ImageInputStream} input is not closed, as it was
+     * provided by the client, who may wish to continue using it. Streams
+     * opened by the reader over a {@link File} or {@link Path} input are
+     * closed.
+     */
     @Override
     public void dispose() {
         super.dispose();
+        resetState();
+    }
+
+    /**
+     * <p>Enables the shared {@link XPMHeaderCache} for the current input.
+     * When a header is cached under the given key, the values and color map
+     * are not parsed at all; otherwise, they are stored under it once
+     * parsed.</p>
+     *
+     * <p>The key must uniquely identify the content of the input, for
+     * example a combination of a file's path and last-modified time, or a
+     * content hash. This method must be called after {@link
+     * #setInput(Object)}, which clears the key, and before anything has
+     * been read from the input.</p>
+     *
+     * @param key Cache key, or {@code null} to bypass the cache.
+     */
+    public void setHeaderCacheKey(Object key) {
+        this.headerCacheKey = key;
+    }
+
+    /**
+     * Overrides the parent to discard any state read from the previous
+     * input.
+     */
+    @Override
+    public void setInput(Object input,
+                         boolean seekForwardOnly,
+                         boolean ignoreMetadata) {
+        super.setInput(input, seekForwardOnly, ignoreMetadata);
+        resetState();
+    }
+
+    private void resetState() {
         colorMap.clear();
+        palette = null;
         width = height = numColors = numCharsPerPixel = 0;
         isWithinComment = false;
-        if (reader != null) {
+        pixelDataOffset = -1;
+        rowOffsets = new long[0];
+        numIndexedRows = 0;
+        thumbnails = null;
+        headerCacheKey = null;
+        scanner = null;
+        if (ownedStream != null) {
             try {
-                reader.close();
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "dispose(): " + e.getMessage(), e);
-            } finally {
-                reader = null;
+                ownedStream.close();
+            } catch (IOException ignore) {
+                // Nothing more can be done with it.
             }
+            ownedStream = null;
         }
     }
 
@@ -92,14 +312,35 @@ public final class XPMImageReader extends ImageReader {
         return new XPMImageMetadata(width, height, bps);
     }
 
+    /**
+     * <p>Returns {@link BufferedImage#TYPE_INT_ARGB}, {@link
+     * BufferedImage#TYPE_INT_RGB}, {@link BufferedImage#TYPE_BYTE_GRAY}, and
+     * {@link BufferedImage#TYPE_BYTE_BINARY} types, in that order.</p>
+     *
+     * <p>If the palette contains no more than 256 colors, these are followed
+     * by an 8-bit indexed type whose color model reflects the palette, and
+     * then by packed 4-, 2-, and 1-bit indexed types, as far as the palette
+     * fits. Decoding into an indexed type writes palette indices directly,
+     * using the colors of the {@link XPMImageReadParam#setDisplayType(
+     * DisplayType) display type} in the color model.</p>
+     */
     @Override
-    public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex) {
-        return Arrays.asList(
+    public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex)
+            throws IOException {
+        readValues();
+        readColorMap();
+        final List<ImageTypeSpecifier> types = new ArrayList<>(Arrays.asList(
                 ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB),
                 ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB),
                 ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_GRAY),
-                ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_BINARY))
-                .iterator();
+                ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_BINARY)));
+        final XPMPalette palette = getPalette();
+        if (palette != null && palette.size() <= XPMPalette.MAX_INDEXED_COLORS) {
+            for (int bits = 8; bits > 0 && palette.size() <= 1 << bits; bits /= 2) {
+                types.add(palette.getIndexedType(DisplayType.COLOR, bits));
+            }
+        }
+        return types.iterator();
     }
 
     @Override
@@ -107,9 +348,184 @@ public final class XPMImageReader extends ImageReader {
         return 1;
     }
 
+    /**
+     * <p>Returns the number of thumbnails, which are reductions of the image
+     * by successive powers of two, starting at 1/2, down to the smallest
+     * whose longer side is at least {@link
+     * ThumbnailBuilder#MIN_THUMBNAIL_SIZE} pixels. At least the 1/2
+     * reduction is offered for any image larger than a single pixel.</p>
+     *
+     * @see #readThumbnail(int, int)
+     */
+    @Override
+    public int getNumThumbnails(int imageIndex) throws IOException {
+        readValues();
+        return ThumbnailBuilder.getNumThumbnails(width, height);
+    }
+
     @Override
-    public int getNumThumbnails(int imageIndex) {
-        return 0;
+    public int getThumbnailHeight(int imageIndex,
+                                  int thumbnailIndex) throws IOException {
+        checkThumbnailIndex(imageIndex, thumbnailIndex);
+        return ThumbnailBuilder.getThumbnailSize(height, thumbnailIndex);
+    }
+
+    @Override
+    public int getThumbnailWidth(int imageIndex,
+                                 int thumbnailIndex) throws IOException {
+        checkThumbnailIndex(imageIndex, thumbnailIndex);
+        return ThumbnailBuilder.getThumbnailSize(width, thumbnailIndex);
+    }
+
+    private void checkThumbnailIndex(int imageIndex,
+                                     int thumbnailIndex) throws IOException {
+        if (thumbnailIndex < 0 ||
+                thumbnailIndex >= getNumThumbnails(imageIndex)) {
+            throw new IndexOutOfBoundsException(
+                    "Invalid thumbnail index: " + thumbnailIndex);
+        }
+    }
+
+    /**
+     * @return {@code true}.
+     */
+    @Override
+    public boolean readerSupportsThumbnails() {
+        return true;
+    }
+
+    /**
+     * <p>Returns a {@link BufferedImage#TYPE_INT_ARGB} reduction of the
+     * image in the colors of {@link DisplayType#COLOR}, each pixel of which
+     * is the alpha-weighted average of the corresponding block of image
+     * pixels.</p>
+     *
+     * <p>All of the thumbnails are built in a single pass over the pixel
+     * data, which only holds one row of the image in memory at a time, and
+     * are retained by the reader until its input changes. The same instances
+     * are therefore returned by subsequent calls, and by {@link
+     * #readAll(int, ImageReadParam)}, which builds them in the same pass as
+     * the image if it reads the whole image.</p>
+     */
+    @Override
+    public BufferedImage readThumbnail(int imageIndex,
+                                       int thumbnailIndex) throws IOException {
+        checkThumbnailIndex(imageIndex, thumbnailIndex);
+        if (thumbnails != null) {
+            return thumbnails[thumbnailIndex];
+        }
+        clearAbortRequest();
+        processThumbnailStarted(imageIndex, thumbnailIndex);
+        final BufferedImage[] images = readThumbnails(imageIndex);
+        if (abortRequested()) {
+            // Incomplete thumbnails are returned, but not retained.
+            processReadAborted();
+        } else {
+            thumbnails = images;
+            processThumbnailComplete();
+        }
+        return images[thumbnailIndex];
+    }
+
+    /**
+     * @return All of the thumbnails.
+     */
+    private BufferedImage[] readThumbnails(int imageIndex) throws IOException {
+        readHeader(null);
+        checkThumbnailPixels(null);
+        final ThumbnailBuilder builder = new ThumbnailBuilder(width, height,
+                getNumThumbnails(imageIndex));
+        final XPMPalette palette = getPalette();
+        if (palette == null) {
+            // Only the legacy decoder can read the image.
+            readLegacy(new Dimension(width, height),
+                    new Rectangle(0, 0, width, height), new Point(), 1, 1,
+                    width, height, DisplayType.COLOR,
+                    colors -> builder.createRowWriter(colors, null), true);
+        } else {
+            final RowDecoder decoder = new RowDecoder(palette,
+                    builder.createRowWriter(
+                            palette.getColors(DisplayType.COLOR), null),
+                    0, width, 1, 0);
+            readRows(0, height, 1, 0, 0, decoder::decode, null, true);
+        }
+        return builder.finish();
+    }
+
+    /**
+     * Reads the image, its thumbnails, and its metadata. If the thumbnails
+     * have not been built yet and the parameter reads the whole image at
+     * full resolution into a new image, on a single decoder thread, they are
+     * built from the rows of the image as it is decoded, so that the pixel
+     * data is only read once. If the read is {@link #abort() aborted}, the
+     * partially read image is returned without thumbnails.
+     */
+    @Override
+    public IIOImage readAll(int imageIndex,
+                            ImageReadParam readParam) throws IOException {
+        readHeader(readParam);
+        final int numThumbnails = getNumThumbnails(imageIndex);
+        if (thumbnails == null && numThumbnails > 0 && getPalette() != null &&
+                isWholeImage(readParam)) {
+            // This is the size of the image that read() will allocate.
+            checkNumPixels((long) width * height, readParam);
+            checkThumbnailPixels(readParam);
+            thumbnailBuilder = new ThumbnailBuilder(width, height, numThumbnails);
+        }
+        final BufferedImage image;
+        try {
+            image = read(imageIndex, readParam);
+            if (thumbnailBuilder != null && !abortRequested()) {
+                thumbnails = thumbnailBuilder.finish();
+            }
+        } finally {
+            thumbnailBuilder = null;
+        }
+        List<BufferedImage> thumbnailList = null;
+        // An aborted read is not followed by another pass to build the
+        // thumbnails, which would also clear the abort request.
+        if (numThumbnails > 0 && !abortRequested()) {
+            thumbnailList = new ArrayList<>(numThumbnails);
+            for (int i = 0; i < numThumbnails; i++) {
+                thumbnailList.add(readThumbnail(imageIndex, i));
+            }
+        }
+        return new IIOImage(image, thumbnailList, getImageMetadata(imageIndex));
+    }
+
+    /**
+     * Checks the total size of the thumbnails, and the width of the rows
+     * from which they are built, against the pixel limit.
+     *
+     * @see #checkNumPixels(long, ImageReadParam)
+     */
+    private void checkThumbnailPixels(ImageReadParam readParam)
+            throws IIOException {
+        checkNumPixels(width, readParam);
+        checkNumPixels(ThumbnailBuilder.getNumPixels(width, height,
+                ThumbnailBuilder.getNumThumbnails(width, height)), readParam);
+    }
+
+    /**
+     * @return Whether {@link #read} would decode every pixel of the image
+     *         with the given parameter, at full resolution, into a new image,
+     *         by way of the byte decoder on a single thread.
+     */
+    private boolean isWholeImage(ImageReadParam readParam) {
+        if (readParam == null) {
+            return true;
+        }
+        final Rectangle region = readParam.getSourceRegion();
+        final Point offset     = readParam.getDestinationOffset();
+        return (region == null || (region.x == 0 && region.y == 0 &&
+                region.width >= width && region.height >= height)) &&
+                readParam.getSourceXSubsampling() == 1 &&
+                readParam.getSourceYSubsampling() == 1 &&
+                (offset == null || (offset.x == 0 && offset.y == 0)) &&
+                readParam.getDestination() == null &&
+                !(readParam instanceof XPMImageReadParam &&
+                        (((XPMImageReadParam) readParam).isLegacyDecoderEnabled() ||
+                                ((XPMImageReadParam) readParam).getNumDecoderThreads() > 1));
     }
 
     /**
@@ -127,6 +543,46 @@ public final class XPMImageReader extends ImageReader {
         return width;
     }
 
+    /**
+     * <p>Returns the stream position of the opening quote of each pixel row,
+     * scanning the remainder of the pixel section if it has not been fully
+     * read yet.</p>
+     *
+     * <p>The reader keeps these positions as rows are read, and uses them to
+     * seek directly to the first row needed by subsequent reads of a source
+     * region.</p>
+     *
+     * @param imageIndex Image index.
+     * @return           Stream positions of all of the rows present in the
+     *                   stream, which may be fewer than the {@link
+     *                   #getHeight(int) height} if the stream is truncated.
+     */
+    public long[] getRowOffsets(int imageIndex) throws IOException {
+        readValues();
+        readColorMap();
+        for (int srcY = seekToRow(height); srcY < height; srcY++) {
+            if (!scanner.nextQuotedString()) {
+                break; // end of image data
+            }
+            indexRow(srcY);
+        }
+        return Arrays.copyOf(rowOffsets, numIndexedRows);
+    }
+
+    /**
+     * @return Palette compiled from the {@link #colorMap}, or {@code null} if
+     *         {@link #numCharsPerPixel} is not supported by {@link
+     *         XPMPalette}.
+     */
+    private XPMPalette getPalette() {
+        if (palette == null &&
+                numCharsPerPixel >= 1 &&
+                numCharsPerPixel <= XPMPalette.MAX_CHARS_PER_PIXEL) {
+            palette = new XPMPalette(colorMap, numCharsPerPixel);
+        }
+        return palette;
+    }
+
     /**
      * Reads the "values" section containing the image dimensions, number of
      * colors, etc.
@@ -135,45 +591,170 @@ public final class XPMImageReader extends ImageReader {
         if (width != 0 || height != 0) {
             return; // values have already been read
         }
-        createReader();
+        createScanner();
+        if (headerCacheKey != null) {
+            XPMHeader header = XPMHeaderCache.getInstance().get(headerCacheKey);
+            if (header != null) {
+                applyHeader(header);
+                return;
+            }
+        }
 
-        String line;
-        while ((line = reader.readLine()) != null) {
-            line = line.trim();
-            if (!line.isEmpty() && !line.startsWith("//") &&
-                    !line.startsWith("/*")) {
-                Matcher matcher = VALUES_PATTERN.matcher(line);
-                if (matcher.find()) {
-                    parseValues(line);
-                    break;
-                }
+        while (scanner.nextLine()) {
+            final byte[] bytes = scanner.buffer();
+            final int start = trimStart(bytes, scanner.sliceStart(), scanner.sliceEnd());
+            final int end   = trimEnd(bytes, start, scanner.sliceEnd());
+            if (start < end && !startsWithComment(bytes, start, end) &&
+                    parseValues(bytes, start, end)) {
+                break;
             }
         }
     }
 
+    private void applyHeader(XPMHeader header) {
+        width            = header.getWidth();
+        height           = header.getHeight();
+        numColors        = header.getNumColors();
+        numCharsPerPixel = header.getNumCharsPerPixel();
+        colorMap.putAll(header.getColorMap());
+        palette          = header.getPalette();
+        pixelDataOffset  = streamStartOffset + header.getPixelDataOffset();
+        setMaxRowLength();
+    }
+
+    /**
+     * Parses the values line into the instance.
+     *
+     * @return Whether the range contains the values.
+     * @see #parseValues(byte[], int, int, int[])
+     */
+    private boolean parseValues(byte[] bytes, int start, int end)
+            throws IIOException {
+        final int[] values = new int[4];
+        if (parseValues(bytes, start, end, values) == 0) {
+            return false;
+        }
+        width            = values[0];
+        height           = values[1];
+        numColors        = values[2];
+        numCharsPerPixel = values[3];
+        return true;
+    }
+
     /**
      * Parses the values line. This line contains four or six integers in base
      * 10 that correspond to: the width and height, the number of colors, the
-     * number of characters per pixel, and possibly some other irrelevant
-     * stuff.
-     */
-    private void parseValues(String line) throws IIOException {
-        Matcher matcher = VALUES_PATTERN.matcher(line);
-        if (matcher.find()) {
-            width            = Integer.parseInt(matcher.group(1));
-            height           = Integer.parseInt(matcher.group(2));
-            numColors        = Integer.parseInt(matcher.group(3));
-            numCharsPerPixel = Integer.parseInt(matcher.group(4));
-        } else {
-            throw new IIOException("Invalid values line: " + line);
+     * number of characters per pixel, and possibly the hotspot coordinates
+     * and/or an {@literal XPMEXT} tag. They are parsed in place from the first
+     * string in the given range that begins with four of them.
+     *
+     * @param values Array into which up to its length of integers are parsed.
+     * @return       Number of integers parsed, which is at least four, or
+     *               zero if the range does not contain the values.
+     */
+    private static int parseValues(byte[] bytes, int start, int end,
+                                   int[] values) throws IIOException {
+        final long[] parsed = new long[values.length];
+        for (int quote = start; quote < end; quote++) {
+            if (bytes[quote] != '"') {
+                continue;
+            }
+            int pos = skipWhitespace(bytes, quote + 1, end);
+            int i = 0;
+            for (; i < values.length; i++) {
+                if (i > 0) {
+                    final int next = skipWhitespace(bytes, pos, end);
+                    if (next == pos) {
+                        break; // digits must be separated by whitespace
+                    }
+                    pos = next;
+                }
+                final int digitsStart = pos;
+                long value = 0;
+                while (pos < end && bytes[pos] >= '0' && bytes[pos] <= '9') {
+                    // Saturate just above the int range.
+                    value = Math.min(value * 10 + (bytes[pos++] - '0'),
+                            Integer.MAX_VALUE + 1L);
+                }
+                if (pos == digitsStart) {
+                    break;
+                }
+                parsed[i] = value;
+            }
+            if (i >= 4) {
+                for (int j = 0; j < i; j++) {
+                    if (parsed[j] > Integer.MAX_VALUE) {
+                        throw new IIOException("Invalid values line: " +
+                                new String(bytes, start, end - start,
+                                        StandardCharsets.ISO_8859_1));
+                    }
+                    values[j] = (int) parsed[j];
+                }
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return Index of the first non-whitespace byte at or after {@literal
+     *         pos}, or {@literal end}.
+     */
+    private static int skipWhitespace(byte[] bytes, int pos, int end) {
+        while (pos < end && (bytes[pos] == ' ' || bytes[pos] == '\t' ||
+                bytes[pos] == '\n' || bytes[pos] == 0x0b ||
+                bytes[pos] == '\f' || bytes[pos] == '\r')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return Index of the first byte in the given range that would not be
+     *         removed by {@link String#trim()}, or {@literal end}.
+     */
+    private static int trimStart(byte[] bytes, int start, int end) {
+        while (start < end && (bytes[start] & 0xff) <= ' ') {
+            start++;
         }
+        return start;
+    }
+
+    /**
+     * @return Index following the last byte in the given range that would
+     *         not be removed by {@link String#trim()}, or {@literal start}.
+     */
+    private static int trimEnd(byte[] bytes, int start, int end) {
+        while (end > start && (bytes[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean startsWithComment(byte[] bytes, int start, int end) {
+        return end - start >= 2 && bytes[start] == '/' &&
+                (bytes[start + 1] == '/' || bytes[start + 1] == '*');
+    }
+
+    /**
+     * @return Whether the given range contains the two-byte sequence.
+     */
+    private static boolean contains(byte[] bytes, int start, int end,
+                                    byte first, byte second) {
+        for (int i = start; i < end - 1; i++) {
+            if (bytes[i] == first && bytes[i + 1] == second) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public BufferedImage read(int imageIndex,
                               ImageReadParam readParam) throws IOException {
-        readValues();
-        readColorMap();
+        readHeader(readParam);
+        clearAbortRequest();
+        processImageStarted(imageIndex);
 
         final Dimension srcDims = new Dimension(
                 getWidth(imageIndex),
@@ -195,95 +776,629 @@ public final class XPMImageReader extends ImageReader {
             subsampX = readParam.getSourceXSubsampling();
             subsampY = readParam.getSourceYSubsampling();
         }
-        final BufferedImage bufImage = getDestination(
+        if (readParam == null || readParam.getDestination() == null) {
+            // This is the size of the image that getDestination() creates.
+            final Rectangle srcRegion = new Rectangle(), destRegion = new Rectangle();
+            computeRegions(readParam, srcDims.width, srcDims.height, null,
+                    srcRegion, destRegion);
+            checkNumPixels((long) (destRegion.x + destRegion.width) *
+                    (destRegion.y + destRegion.height), readParam);
+        }
+        BufferedImage bufImage = getDestination(
                 readParam,
                 getImageTypes(imageIndex),
                 getWidth(imageIndex),
                 getHeight(imageIndex));
-        for (int srcY = 0; srcY < srcDims.height; srcY += subsampY) {
-            String line = "";
-            for (int sy = subsampY; sy > 0 && line != null; sy--) {
-                line = reader.readLine();
+        final DisplayType displayType = (readParam instanceof XPMImageReadParam) ?
+                ((XPMImageReadParam) readParam).getDisplayType() :
+                DisplayType.COLOR;
+        final XPMPalette palette = getPalette();
+        // The indexed types offered by getImageTypes() use the colors of the
+        // COLOR display type, so an image created from one of them gets
+        // those of the requested display type instead.
+        if (palette != null &&
+                displayType != DisplayType.COLOR &&
+                readParam.getDestination() == null &&
+                RowWriter.isPaletteColorModel(bufImage.getColorModel(),
+                        palette.getColors(DisplayType.COLOR))) {
+            bufImage = new BufferedImage(
+                    palette.getIndexColorModel(displayType,
+                            bufImage.getColorModel().getPixelSize()),
+                    bufImage.getRaster(), false, null);
+        }
+        final boolean isLegacy = palette == null ||
+                (readParam instanceof XPMImageReadParam &&
+                        ((XPMImageReadParam) readParam).isLegacyDecoderEnabled());
+        final int[] bands = new int[bufImage.getSampleModel().getNumBands()];
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] = i;
+        }
+        processPassStarted(bufImage, 0, 0, 0,
+                Math.max(0, destOffset.x), Math.max(0, destOffset.y),
+                1, 1, bands);
+        if (isLegacy) {
+            final BufferedImage image = bufImage;
+            readLegacy(srcDims, roi, destOffset, subsampX, subsampY,
+                    bufImage.getWidth(), bufImage.getHeight(), displayType,
+                    colors -> RowWriter.create(image, colors), false);
+            processImageUpdate(bufImage, 0, 0,
+                    bufImage.getWidth(), bufImage.getHeight(), 1, 1, bands);
+        } else {
+            readBytes(srcDims, roi, destOffset, subsampX, subsampY,
+                    bufImage.getWidth(), bufImage.getHeight(),
+                    RowWriter.create(bufImage,
+                            palette.getColors(displayType)),
+                    readParam, bufImage, bands);
+        }
+        processPassComplete(bufImage);
+        processReadEnded();
+        return bufImage;
+    }
+
+    /**
+     * @return {@code true}.
+     */
+    @Override
+    public boolean canReadRaster() {
+        return true;
+    }
+
+    /**
+     * <p>Returns the 8-bit indexed type whose color model reflects the
+     * palette if the palette contains no more than 256 colors, and {@link
+     * BufferedImage#TYPE_INT_ARGB} otherwise.</p>
+     *
+     * @see #readRaster(int, ImageReadParam)
+     */
+    @Override
+    public ImageTypeSpecifier getRawImageType(int imageIndex)
+            throws IOException {
+        readValues();
+        readColorMap();
+        final XPMPalette palette = getPalette();
+        if (isIndexedRaster(palette)) {
+            return palette.getIndexedType(DisplayType.COLOR, 8);
+        }
+        return ImageTypeSpecifier.createFromBufferedImageType(
+                BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * <p>Decodes the image into a new raster without creating a {@link
+     * BufferedImage}. The layout of the raster is that of the {@link
+     * #getRawImageType(int) raw image type}: if the palette contains no more
+     * than 256 colors, it has a single band of palette indices, which do not
+     * depend on the {@link XPMImageReadParam#setDisplayType(DisplayType)
+     * display type}; otherwise, it has one packed ARGB {@literal int} per
+     * pixel, in the colors of the display type.</p>
+     *
+     * <p>As specified by the parent, the raster is sized to the source
+     * region clipped to the image and subsampled, and any destination offset
+     * becomes its location rather than shifting its content. The {@link
+     * XPMImageReadParam#setLegacyDecoderEnabled(boolean) legacy decoder} is
+     * only used when it is the only one capable of reading the image.</p>
+     */
+    @Override
+    public Raster readRaster(int imageIndex,
+                             ImageReadParam readParam) throws IOException {
+        readHeader(readParam);
+
+        final Dimension srcDims = new Dimension(width, height);
+        final Rectangle roi = (readParam != null && readParam.getSourceRegion() != null) ?
+                readParam.getSourceRegion().intersection(
+                        new Rectangle(0, 0, width, height)) :
+                new Rectangle(0, 0, width, height);
+        final int subsampX = (readParam != null) ? readParam.getSourceXSubsampling() : 1;
+        final int subsampY = (readParam != null) ? readParam.getSourceYSubsampling() : 1;
+        final Point location = (readParam != null && readParam.getDestinationOffset() != null) ?
+                readParam.getDestinationOffset() : new Point();
+        if (roi.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Source region does not intersect the image");
+        }
+        final int rasterWidth  = (roi.width + subsampX - 1) / subsampX;
+        final int rasterHeight = (roi.height + subsampY - 1) / subsampY;
+        checkNumPixels((long) rasterWidth * rasterHeight, readParam);
+        clearAbortRequest();
+        processImageStarted(imageIndex);
+
+        final DisplayType displayType = (readParam instanceof XPMImageReadParam) ?
+                ((XPMImageReadParam) readParam).getDisplayType() :
+                DisplayType.COLOR;
+        final XPMPalette palette = getPalette();
+        final ColorModel colorModel;
+        final int[] colors;
+        if (isIndexedRaster(palette)) {
+            colorModel = palette.getIndexColorModel(DisplayType.COLOR, 8);
+            colors     = palette.getColors(DisplayType.COLOR);
+        } else {
+            colorModel = ColorModel.getRGBdefault();
+            colors     = (palette != null) ? palette.getColors(displayType) : null;
+        }
+        final WritableRaster raster = colorModel.createCompatibleWritableRaster(
+                rasterWidth, rasterHeight);
+        if (palette == null) {
+            readLegacy(srcDims, roi, new Point(), subsampX, subsampY,
+                    rasterWidth, rasterHeight, displayType,
+                    legacyColors -> RowWriter.create(raster, colorModel,
+                            legacyColors), false);
+        } else {
+            readBytes(srcDims, roi, new Point(), subsampX, subsampY,
+                    rasterWidth, rasterHeight,
+                    RowWriter.create(raster, colorModel, colors),
+                    readParam, null, null);
+        }
+        processReadEnded();
+        return (location.x != 0 || location.y != 0) ?
+                raster.createWritableTranslatedChild(location.x, location.y) :
+                raster;
+    }
+
+    /**
+     * <p>Decodes the image one row at a time into a single reused array,
+     * which is handed to the given consumer after each row, so that memory
+     * use is proportional to the width of the image rather than its area.
+     * Rows are decoded in order on the calling thread, into the colors of the
+     * {@link XPMImageReadParam#setDisplayType(DisplayType) display type}.</p>
+     *
+     * <p>Each row is as wide as the source region clipped to the image and
+     * subsampled, as in {@link #readRaster(int, ImageReadParam)}; pixels with
+     * unknown codes, or beyond the end of a short row, are transparent. Rows
+     * missing from truncated pixel data are not delivered. The destination,
+     * destination offset, {@link
+     * XPMImageReadParam#setNumDecoderThreads(int) decoder threads} and {@link
+     * XPMImageReadParam#setLegacyDecoderEnabled(boolean) legacy decoder}
+     * settings of the parameter are ignored.</p>
+     *
+     * @param imageIndex Image index.
+     * @param readParam  Read parameter, or {@code null}.
+     * @param consumer   Consumer of the decoded rows.
+     * @throws IIOException if the image has more than {@link
+     *         XPMPalette#MAX_CHARS_PER_PIXEL} characters per pixel, which
+     *         only the legacy decoder supports.
+     * @throws IllegalArgumentException if the source region does not
+     *         intersect the image.
+     */
+    public void readScanlines(int imageIndex,
+                              ImageReadParam readParam,
+                              XPMScanlineConsumer consumer) throws IOException {
+        readHeader(readParam);
+
+        final XPMPalette palette = getPalette();
+        if (palette == null) {
+            throw new IIOException("Scanline reading is not supported for " +
+                    numCharsPerPixel + " characters per pixel");
+        }
+        final Rectangle roi = (readParam != null && readParam.getSourceRegion() != null) ?
+                readParam.getSourceRegion().intersection(
+                        new Rectangle(0, 0, width, height)) :
+                new Rectangle(0, 0, width, height);
+        final int subsampX = (readParam != null) ? readParam.getSourceXSubsampling() : 1;
+        final int subsampY = (readParam != null) ? readParam.getSourceYSubsampling() : 1;
+        if (roi.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Source region does not intersect the image");
+        }
+        final DisplayType displayType = (readParam instanceof XPMImageReadParam) ?
+                ((XPMImageReadParam) readParam).getDisplayType() :
+                DisplayType.COLOR;
+
+        // Columns and rows are sampled on the same grid as in readBytes().
+        final int startX = alignUp(roi.x, subsampX);
+        final int startY = alignUp(roi.y, subsampY);
+        final int endX   = roi.x + roi.width;
+        final int endY   = roi.y + roi.height;
+        clearAbortRequest();
+        processImageStarted(imageIndex);
+        if (startX >= endX || startY >= endY) {
+            processReadEnded();
+            return;
+        }
+        final int rowWidth = (roi.width + subsampX - 1) / subsampX;
+        checkNumPixels(rowWidth, readParam);
+        final int[] row = new int[rowWidth];
+        final RowDecoder decoder = new RowDecoder(palette,
+                RowWriter.create(row, palette.getColors(displayType)),
+                startX, endX, subsampX, (startX - roi.x) / subsampX);
+        readRows(startY, endY, subsampY, roi.y, 0,
+                (buffer, rowStart, rowEnd, y) -> {
+                    Arrays.fill(row, 0);
+                    decoder.decode(buffer, rowStart, rowEnd, y);
+                    consumer.accept(row, y);
+                }, null, false);
+        processReadEnded();
+    }
+
+    /**
+     * @return Whether {@link #readRaster} decodes palette indices rather
+     *         than colors.
+     */
+    private static boolean isIndexedRaster(XPMPalette palette) {
+        return palette != null &&
+                palette.size() <= XPMPalette.MAX_INDEXED_COLORS;
+    }
+
+    /**
+     * Decodes the pixel section directly from the bytes in the {@link
+     * #scanner}'s buffer. Pixel codes are resolved to palette indices via the
+     * {@link #palette} without creating any {@link String}s, and each row of
+     * indices is written to the image by a {@link RowWriter}.
+     *
+     * <p>The range of source rows and columns that land in the destination
+     * is computed up front. Reading starts at the last {@link #rowOffsets
+     * indexed} row not below it, rows above it are only scanned for their
+     * delimiters, reading stops after its last row, and only its columns
+     * are decoded.</p>
+     *
+     * <p>If more than one {@link XPMImageReadParam#setNumDecoderThreads(int)
+     * decoder thread} is requested, the rows are instead copied into bands,
+     * which are decoded concurrently into disjoint rows of the image while
+     * the remaining rows are being scanned.</p>
+     *
+     * @param destWidth     Width of the destination.
+     * @param destHeight    Height of the destination.
+     * @param writer        Writer into the destination, of which each decoder
+     *                      thread uses a {@link RowWriter#copy() copy}.
+     * @param updateImage   Image to report in update notifications, or
+     *                      {@code null} to send none.
+     * @param updateBands   Bands to report in update notifications.
+     */
+    private void readBytes(Dimension srcDims,
+                           Rectangle roi,
+                           Point destOffset,
+                           int subsampX,
+                           int subsampY,
+                           int destWidth,
+                           int destHeight,
+                           RowWriter writer,
+                           ImageReadParam readParam,
+                           BufferedImage updateImage,
+                           int[] updateBands) throws IOException {
+        // Source pixels are sampled on a grid of multiples of the
+        // subsampling periods, and land in the destination at the offset
+        // plus their subsampled distance from the region origin.
+        final int startX = alignUp(Math.max(0, Math.max(roi.x,
+                roi.x - destOffset.x * subsampX)), subsampX);
+        final int startY = alignUp(Math.max(0, Math.max(roi.y,
+                roi.y - destOffset.y * subsampY)), subsampY);
+        final int endX = (int) Math.min(Math.min(srcDims.width,
+                (long) roi.x + roi.width),
+                roi.x + (long) (destWidth - destOffset.x) * subsampX);
+        final int endY = (int) Math.min(Math.min(srcDims.height,
+                (long) roi.y + roi.height),
+                roi.y + (long) (destHeight - destOffset.y) * subsampY);
+        if (startX >= endX || startY >= endY) {
+            return;
+        }
+        final int destX = destOffset.x + (startX - roi.x) / subsampX;
+        final int numColumns = (endX - startX + subsampX - 1) / subsampX;
+        final Supplier<RowDecoder> decoderFactory = () -> new RowDecoder(
+                palette, writer.copy(), startX, endX, subsampX, destX);
+
+        final int numThreads = (readParam instanceof XPMImageReadParam) ?
+                ((XPMImageReadParam) readParam).getNumDecoderThreads() : 1;
+        if (numThreads > 1) {
+            final int numRows = (endY - startY + subsampY - 1) / subsampY;
+            // Several bands per thread allow decoding to keep up with
+            // scanning.
+            final int bandHeight = Math.max(1,
+                    (numRows + numThreads * 4 - 1) / (numThreads * 4));
+            final Executor executor =
+                    ((XPMImageReadParam) readParam).getDecoderExecutor();
+            final int numRowsRead;
+            try (RowBandDecoder bandDecoder = new RowBandDecoder(
+                    decoderFactory, bandHeight, numThreads, executor)) {
+                numRowsRead = readRows(startY, endY, subsampY, roi.y,
+                        destOffset.y, bandDecoder::add, null, false);
+                bandDecoder.finish();
             }
-            if (line == null) {
-                break; // EOF
-            } else if (line.startsWith("/*") || line.startsWith("//")) {
-                continue;
+            // Bands are finished in no particular order, so the decoded
+            // rows are reported all at once.
+            if (updateImage != null && numRowsRead > 0) {
+                processImageUpdate(updateImage, destX,
+                        destOffset.y + (startY - roi.y) / subsampY,
+                        numColumns, numRowsRead, 1, 1, updateBands);
             }
-            int quotePos = line.indexOf("\"");
-            if (quotePos == -1) {
+        } else {
+            // During readAll(), the rows are also written to the thumbnails.
+            final RowDecoder decoder = (thumbnailBuilder != null) ?
+                    new RowDecoder(palette, thumbnailBuilder.createRowWriter(
+                            palette.getColors(DisplayType.COLOR), writer),
+                            startX, endX, subsampX, destX) :
+                    decoderFactory.get();
+            readRows(startY, endY, subsampY, roi.y, destOffset.y,
+                    decoder::decode,
+                    (updateImage != null && updateListeners != null) ?
+                            (destY, numRows) -> processImageUpdate(updateImage,
+                                    destX, destY, numColumns, numRows,
+                                    1, 1, updateBands) :
+                            null,
+                    false);
+        }
+    }
+
+    /**
+     * <p>Scans the pixel rows up to {@literal endY}, handing the ones from
+     * {@literal startY} that are multiples of {@literal subsampY} to the
+     * given consumer.</p>
+     *
+     * <p>Every {@link #PROGRESS_INTERVAL} rows, the rows handed over since
+     * the last time are reported to the update listener, progress is
+     * reported, and scanning stops if an abort has been requested.</p>
+     *
+     * @param updateListener Listener for handed-over rows, or {@code null}.
+     * @param isThumbnail    Whether the rows are being read for the
+     *                       thumbnails, whose progress is reported as such.
+     * @return               Number of rows handed to the consumer.
+     */
+    private int readRows(int startY,
+                         int endY,
+                         int subsampY,
+                         int roiY,
+                         int destOffsetY,
+                         RowConsumer consumer,
+                         UpdateListener updateListener,
+                         boolean isThumbnail) throws IOException {
+        int numRows = 0, numUpdatedRows = 0;
+        for (int srcY = seekToRow(startY); srcY < endY; srcY++) {
+            if (!scanner.nextQuotedString()) {
                 break; // end of image data
             }
-            line = line.substring(quotePos + 1);
-            for (int srcX = 0; srcX < srcDims.width; srcX += subsampX) {
-                final int destX = destOffset.x + (srcX - roi.x) / subsampX;
-                final int destY = destOffset.y + (srcY - roi.y) / subsampY;
-                if (srcX >= roi.x  &&
-                        srcY >= roi.y &&
-                        srcX < roi.x + roi.width &&
-                        srcY < roi.y + roi.height &&
-                        destX < bufImage.getWidth() &&
-                        destY < bufImage.getHeight()) {
-                    String pixelID = line.substring(
-                            srcX * numCharsPerPixel,
-                            srcX * numCharsPerPixel + numCharsPerPixel);
-                    XPMPixel pixel = colorMap.get(pixelID);
-                    writePixel(pixel, bufImage, destX, destY, readParam);
+            indexRow(srcY);
+            if (srcY >= startY && srcY % subsampY == 0) {
+                consumer.accept(scanner.buffer(), scanner.sliceStart(),
+                        scanner.sliceEnd(), destOffsetY + (srcY - roiY) / subsampY);
+                numRows++;
+            }
+            if ((srcY + 1) % PROGRESS_INTERVAL == 0) {
+                if (updateListener != null && numRows > numUpdatedRows) {
+                    updateListener.rowsWritten(destOffsetY +
+                            (startY - roiY) / subsampY + numUpdatedRows,
+                            numRows - numUpdatedRows);
+                    numUpdatedRows = numRows;
+                }
+                if (reportProgress(srcY + 1, endY, isThumbnail)) {
+                    return numRows;
                 }
             }
         }
-        return bufImage;
+        if (updateListener != null && numRows > numUpdatedRows) {
+            updateListener.rowsWritten(destOffsetY +
+                    (startY - roiY) / subsampY + numUpdatedRows,
+                    numRows - numUpdatedRows);
+        }
+        return numRows;
     }
 
-    private void writePixel(XPMPixel pixel,
-                            BufferedImage bufImage,
-                            int destX,
-                            int destY, ImageReadParam readParam) {
-        if (pixel == null) {
-            return;
+    /**
+     * Notifies progress listeners of the number of source rows that have
+     * been read for the image or the thumbnails, and checks for an abort
+     * request.
+     *
+     * @return Whether an {@link #abort() abort} has been requested.
+     */
+    private boolean reportProgress(int numRowsRead,
+                                   int numRows,
+                                   boolean isThumbnail) {
+        final float percentageDone = 100f * numRowsRead / numRows;
+        if (isThumbnail) {
+            processThumbnailProgress(percentageDone);
+        } else {
+            processImageProgress(percentageDone);
         }
-        int color;
-        if (readParam instanceof XPMImageReadParam) {
-            XPMImageReadParam xpmReadParam = (XPMImageReadParam) readParam;
-            switch (xpmReadParam.getDisplayType()) {
-                case GRAYSCALE:
-                case FOUR_LEVEL_GRAYSCALE:
-                    color = pixel.getEffectiveGrayColor();
-                    break;
-                case MONOCHROME:
-                    color = pixel.getEffectiveMonoColor();
-                    break;
-                default:
-                    color = pixel.getEffectiveRGBColor();
-                    break;
-            }
+        return abortRequested();
+    }
+
+    /**
+     * Notifies progress listeners of the end of a read, which is either
+     * complete or aborted.
+     */
+    private void processReadEnded() {
+        if (abortRequested()) {
+            processReadAborted();
         } else {
-            color = pixel.getEffectiveRGBColor();
+            processImageComplete();
+        }
+    }
+
+    /**
+     * @return Smallest multiple of {@literal multiple} that is greater than
+     *         or equal to {@literal value}, which must not be negative.
+     */
+    private static int alignUp(int value, int multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    /**
+     * <p>Decodes the pixel section using a {@link String} and a {@link Map}
+     * lookup per pixel. This is the original decoding path, which is
+     * retained for comparison, and for numbers of characters per pixel that
+     * are not supported by {@link XPMPalette}.</p>
+     *
+     * <p>Rows are read by {@link #readRows} exactly as for the byte decoder,
+     * so they are sampled on the same grid and land in the same destination
+     * rows, and only the sampled columns within the region are visited.
+     * Pixel codes are resolved to indices into a table of the colors of the
+     * given display type, which are written by the writer that the given
+     * factory creates for the table.</p>
+     *
+     * @param isThumbnail Whether the image is being read for the thumbnails.
+     * @see XPMImageReadParam#setLegacyDecoderEnabled(boolean)
+     */
+    private void readLegacy(Dimension srcDims,
+                            Rectangle roi,
+                            Point destOffset,
+                            int subsampX,
+                            int subsampY,
+                            int destWidth,
+                            int destHeight,
+                            DisplayType displayType,
+                            Function<int[], RowWriter> writerFactory,
+                            boolean isThumbnail) throws IOException {
+        // Resolve the effective colors for the display type once, rather
+        // than per pixel.
+        final Map<String,Integer> indices = new HashMap<>(colorMap.size() * 2);
+        final int[] colors = new int[colorMap.size()];
+        for (Map.Entry<String,XPMPixel> entry : colorMap.entrySet()) {
+            colors[indices.size()] =
+                    entry.getValue().getEffectiveColor(displayType);
+            indices.put(entry.getKey(), indices.size());
+        }
+        // Same sampling grid as readBytes().
+        final int startX = alignUp(Math.max(0, Math.max(roi.x,
+                roi.x - destOffset.x * subsampX)), subsampX);
+        final int startY = alignUp(Math.max(0, Math.max(roi.y,
+                roi.y - destOffset.y * subsampY)), subsampY);
+        final int endX = (int) Math.min(Math.min(srcDims.width,
+                (long) roi.x + roi.width),
+                roi.x + (long) (destWidth - destOffset.x) * subsampX);
+        final int endY = (int) Math.min(Math.min(srcDims.height,
+                (long) roi.y + roi.height),
+                roi.y + (long) (destHeight - destOffset.y) * subsampY);
+        if (startX >= endX || startY >= endY) {
+            return;
+        }
+        final int destX = destOffset.x + (startX - roi.x) / subsampX;
+        final int cpp = numCharsPerPixel;
+        final RowWriter writer = writerFactory.apply(colors);
+        final int[] rowIndices = new int[(endX - startX + subsampX - 1) / subsampX];
+
+        readRows(startY, endY, subsampY, roi.y, destOffset.y,
+                (bytes, rowStart, rowEnd, destY) -> {
+                    int length = 0;
+                    for (int srcX = startX, pos = rowStart + startX * cpp;
+                         srcX < endX && pos + cpp <= rowEnd;
+                         srcX += subsampX, pos += subsampX * cpp) {
+                        final Integer index = indices.get(new String(bytes,
+                                pos, cpp, StandardCharsets.ISO_8859_1));
+                        rowIndices[length++] = (index != null) ? index : -1;
+                    }
+                    if (length > 0) {
+                        writer.write(rowIndices, length, destX, destY);
+                    }
+                }, null, isThumbnail);
+    }
+
+    /**
+     * Reads the header for a decode, applying the limits of the given
+     * parameter if it is an {@link XPMImageReadParam}, and otherwise the
+     * system-wide defaults. The limit on the number of colors is applied
+     * even if the color map has already been read.
+     */
+    private void readHeader(ImageReadParam readParam) throws IOException {
+        createScanner();
+        setMaxBytes((readParam instanceof XPMImageReadParam) ?
+                ((XPMImageReadParam) readParam).getMaxBytes() :
+                XPMImageReadParam.getDefaultMaxBytes());
+        readValues();
+        checkNumColors(readParam);
+        readColorMap(readParam);
+    }
+
+    /**
+     * @throws IIOException if the number of colors declared by the header
+     *         exceeds the limit of the given parameter.
+     * @see #readHeader(ImageReadParam)
+     */
+    private void checkNumColors(ImageReadParam readParam) throws IIOException {
+        final int maxColors = (readParam instanceof XPMImageReadParam) ?
+                ((XPMImageReadParam) readParam).getMaxColors() :
+                XPMImageReadParam.getDefaultMaxColors();
+        if (numColors > maxColors) {
+            throw new IIOException("Number of colors (" + numColors +
+                    ") exceeds the limit of " + maxColors);
+        }
+    }
+
+    /**
+     * @param numPixels Number of pixels that a read is about to allocate.
+     * @throws IIOException if it exceeds the limit of the given parameter.
+     * @see #readHeader(ImageReadParam)
+     */
+    private static void checkNumPixels(long numPixels,
+                                       ImageReadParam readParam) throws IIOException {
+        final long maxPixels = (readParam instanceof XPMImageReadParam) ?
+                ((XPMImageReadParam) readParam).getMaxPixels() :
+                XPMImageReadParam.getDefaultMaxPixels();
+        if (numPixels > maxPixels) {
+            throw new IIOException("Number of pixels (" + numPixels +
+                    ") exceeds the limit of " + maxPixels);
         }
-        bufImage.setRGB(destX, destY, color);
     }
 
     private void readColorMap() throws IOException {
-        if (!colorMap.isEmpty()) {
+        readColorMap(null);
+    }
+
+    /**
+     * @param readParam Parameter whose limit on the number of colors is
+     *                  checked before the color map is read.
+     */
+    private void readColorMap(ImageReadParam readParam) throws IOException {
+        if (pixelDataOffset >= 0) {
             return;
         }
-        String line;
-        while (colorMap.size() < numColors &&
-                (line = reader.readLine()) != null) {
-            line = line.trim();
-            if (line.startsWith("/*") && !line.contains("*/")) {
+        checkNumColors(readParam);
+        while (colorMap.size() < numColors && scanner.nextLine()) {
+            final byte[] bytes = scanner.buffer();
+            final int start = trimStart(bytes, scanner.sliceStart(), scanner.sliceEnd());
+            final int end   = trimEnd(bytes, start, scanner.sliceEnd());
+            final boolean closesComment = contains(bytes, start, end,
+                    (byte) '*', (byte) '/');
+            if (end - start >= 2 && bytes[start] == '/' &&
+                    bytes[start + 1] == '*' && !closesComment) {
                 isWithinComment = true;
-            } else if (line.contains("*/")) {
+            } else if (closesComment) {
                 isWithinComment = false;
-            } else if (!isWithinComment) {
-                Matcher matcher = COLOR_PATTERN.matcher(line);
-                if (matcher.find()) {
-                    String id = line.substring(1, 1 + numCharsPerPixel);
-                    line      = line.substring(1 + numCharsPerPixel);
-                    colorMap.put(id, XPMPixel.parse(line));
+            } else if (!isWithinComment && end - start > numCharsPerPixel) {
+                // Lines without any display type key are not color lines.
+                final XPMPixel pixel = XPMPixel.parse(
+                        bytes, start + 1 + numCharsPerPixel, end);
+                if (pixel != null) {
+                    colorMap.put(new String(bytes, start + 1, numCharsPerPixel,
+                            StandardCharsets.ISO_8859_1), pixel);
                 }
             }
         }
+        pixelDataOffset = scanner.position();
+        setMaxRowLength();
+        if (headerCacheKey != null) {
+            XPMHeaderCache.getInstance().put(headerCacheKey, new XPMHeader(
+                    width, height, numColors, numCharsPerPixel, colorMap,
+                    getPalette(), pixelDataOffset - streamStartOffset));
+        }
+    }
+
+    /**
+     * Moves the {@link #scanner} to the start of the given pixel row, or to
+     * that of the last {@link #rowOffsets indexed} row preceding it.
+     *
+     * @return Index of the row at which the scanner is positioned.
+     */
+    private int seekToRow(int row) throws IOException {
+        final int indexedRow = Math.min(row, numIndexedRows - 1);
+        if (indexedRow < 0) {
+            scanner.seek(pixelDataOffset);
+            return 0;
+        }
+        scanner.seek(rowOffsets[indexedRow]);
+        return indexedRow;
+    }
+
+    /**
+     * Records the position of the row just returned by the {@link #scanner}
+     * in {@link #rowOffsets}, if it is the next one not yet indexed.
+     */
+    private void indexRow(int row) {
+        if (row != numIndexedRows) {
+            return;
+        }
+        if (numIndexedRows == rowOffsets.length) {
+            rowOffsets = Arrays.copyOf(rowOffsets,
+                    Math.min(height, Math.max(64, rowOffsets.length * 2)));
+        }
+        // Back up over the opening quote.
+        rowOffsets[numIndexedRows++] = scanner.slicePosition() - 1;
     }
 
 }
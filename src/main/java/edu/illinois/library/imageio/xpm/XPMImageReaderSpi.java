@@ -3,7 +3,11 @@ package edu.illinois.library.imageio.xpm;
 import javax.imageio.ImageReader;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Locale;
 
@@ -17,8 +21,9 @@ public class XPMImageReaderSpi extends ImageReaderSpi {
             XPMImageReader.class.getName();
     private static final String[] NAMES            = { "xpm" };
     private static final String[] SUFFIXES         = { "xpm" };
-    private static final String[] MIME_TYPES       = { "image/x‑xpixmap" };
-    private static final String[] WRITER_SPI_NAMES = {};
+    private static final String[] MIME_TYPES       = { "image/x-xpixmap" };
+    private static final String[] WRITER_SPI_NAMES =
+            { XPMImageWriterSpi.class.getName() };
 
     private static final boolean SUPPORTS_STANDARD_STREAM_METADATA_FORMAT  = false;
     private static final String NATIVE_STREAM_METADATA_FORMAT_NAME         = null;
@@ -40,7 +45,7 @@ public class XPMImageReaderSpi extends ImageReaderSpi {
                 SUFFIXES,
                 MIME_TYPES,
                 READER_CLASS_NAME,
-                new Class[] { ImageInputStream.class },
+                new Class<?>[] { ImageInputStream.class, File.class, Path.class },
                 WRITER_SPI_NAMES,
                 SUPPORTS_STANDARD_STREAM_METADATA_FORMAT,
                 NATIVE_STREAM_METADATA_FORMAT_NAME,
@@ -54,25 +59,54 @@ public class XPMImageReaderSpi extends ImageReaderSpi {
                 EXTRA_IMAGE_METADATA_FORMAT_CLASS_NAMES);
     }
 
+    /**
+     * Checks for the XPM signature at the current position of an {@link
+     * ImageInputStream}, or at the beginning of a {@link File} or {@link
+     * Path}.
+     */
     @Override
     public boolean canDecodeInput(Object source) {
-        if (source instanceof ImageInputStream) {
-            ImageInputStream inputStream = (ImageInputStream) source;
+        if (source instanceof File || source instanceof Path) {
+            final Path path = (source instanceof File) ?
+                    ((File) source).toPath() : (Path) source;
             byte[] bytes = new byte[XPM_SIGNATURE.length];
-            try {
-                inputStream.mark();
-                inputStream.readFully(bytes);
-                inputStream.reset();
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                int offset = 0, count;
+                while (offset < bytes.length && (count = inputStream.read(
+                        bytes, offset, bytes.length - offset)) > 0) {
+                    offset += count;
+                }
             } catch (IOException ignore) {
-                // The official example swallows this. See:
-                // https://docs.oracle.com/javase/8/docs/technotes/guides/imageio/spec/extending.fm3.html
                 return false;
             }
             return Arrays.equals(XPM_SIGNATURE, bytes);
+        } else if (source instanceof ImageInputStream) {
+            return hasSignature((ImageInputStream) source);
         }
         return false;
     }
 
+    /**
+     * Checks for the XPM signature at the current position of the given
+     * stream, which is left unchanged.
+     */
+    static boolean hasSignature(ImageInputStream inputStream) {
+        byte[] bytes = new byte[XPM_SIGNATURE.length];
+        try {
+            inputStream.mark();
+            try {
+                inputStream.readFully(bytes);
+            } finally {
+                inputStream.reset();
+            }
+        } catch (IOException ignore) {
+            // The official example swallows this. See:
+            // https://docs.oracle.com/javase/8/docs/technotes/guides/imageio/spec/extending.fm3.html
+            return false;
+        }
+        return Arrays.equals(XPM_SIGNATURE, bytes);
+    }
+
     @Override
     public ImageReader createReaderInstance(Object extension) {
         return new XPMImageReader(this);
@@ -0,0 +1,238 @@
+package edu.illinois.library.imageio.xpm;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * <p>Writes XPM version 3 images.</p>
+ *
+ * <p>The palette consists of the distinct colors present in the image, with
+ * pixels whose alpha is less than 50% mapped to the {@literal None} color.
+ * The smallest number of characters per pixel that can encode the palette is
+ * used.</p>
+ *
+ * <p>Source regions and subsampling are supported, but metadata is
+ * ignored.</p>
+ *
+ * @see <a href="https://www.x.org/docs/XPM/xpm.pdf">XPM Manual</a>
+ */
+public final class XPMImageWriter extends ImageWriter {
+
+    /**
+     * Characters from which pixel codes are formed: all printable ASCII
+     * characters except the quote and backslash, which would need escaping,
+     * and the slash, which could form comment delimiters.
+     */
+    private static final byte[] CODE_CHARS;
+
+    /**
+     * Palette key of all pixels that are written as {@literal None}.
+     */
+    private static final int TRANSPARENT = 0;
+
+    static {
+        final StringBuilder builder = new StringBuilder();
+        for (char c = ' '; c <= '~'; c++) {
+            if (c != '"' && c != '\\' && c != '/') {
+                builder.append(c);
+            }
+        }
+        CODE_CHARS = builder.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    XPMImageWriter(XPMImageWriterSpi spi) {
+        super(spi);
+    }
+
+    /**
+     * @return Smallest number of characters per pixel that can encode the
+     *         given number of colors.
+     */
+    static int charsPerPixel(int numColors) {
+        int numCharsPerPixel = 1;
+        for (long capacity = CODE_CHARS.length; capacity < numColors;
+             capacity *= CODE_CHARS.length) {
+            numCharsPerPixel++;
+        }
+        return numCharsPerPixel;
+    }
+
+    /**
+     * @return Palette key of the given ARGB color.
+     */
+    private static int key(int argb) {
+        return (argb >>> 24 < 0x80) ? TRANSPARENT : argb | 0xff000000;
+    }
+
+    private static BufferedImage toBufferedImage(RenderedImage image) {
+        if (image instanceof BufferedImage) {
+            return (BufferedImage) image;
+        }
+        final ColorModel colorModel = image.getColorModel();
+        final WritableRaster raster = colorModel
+                .createCompatibleWritableRaster(image.getWidth(), image.getHeight())
+                .createWritableTranslatedChild(image.getMinX(), image.getMinY());
+        image.copyData(raster);
+        return new BufferedImage(colorModel,
+                raster.createWritableTranslatedChild(0, 0),
+                colorModel.isAlphaPremultiplied(), null);
+    }
+
+    @Override
+    public IIOMetadata convertImageMetadata(IIOMetadata inData,
+                                            ImageTypeSpecifier imageType,
+                                            ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertStreamMetadata(IIOMetadata inData,
+                                             ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType,
+                                               ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+        return null;
+    }
+
+    /**
+     * Writes the image in two passes: the first builds the palette and the
+     * second writes the header followed by the pixel rows, each of which is
+     * encoded into a reusable buffer and written to the stream in one go.
+     */
+    @Override
+    public void write(IIOMetadata streamMetadata,
+                      IIOImage iioImage,
+                      ImageWriteParam param) throws IOException {
+        if (output == null) {
+            throw new IllegalStateException("Output has not been set");
+        } else if (iioImage == null) {
+            throw new IllegalArgumentException("Image cannot be null");
+        } else if (iioImage.hasRaster()) {
+            throw new UnsupportedOperationException("Rasters are not supported");
+        }
+        final ImageOutputStream os = (ImageOutputStream) output;
+        final BufferedImage image  = toBufferedImage(iioImage.getRenderedImage());
+
+        Rectangle region = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+        int subsampX = 1, subsampY = 1, offsetX = 0, offsetY = 0;
+        if (param != null) {
+            if (param.getSourceRegion() != null) {
+                region = region.intersection(param.getSourceRegion());
+            }
+            subsampX = param.getSourceXSubsampling();
+            subsampY = param.getSourceYSubsampling();
+            offsetX  = param.getSubsamplingXOffset();
+            offsetY  = param.getSubsamplingYOffset();
+        }
+        final int width  = (region.width - offsetX + subsampX - 1) / subsampX;
+        final int height = (region.height - offsetY + subsampY - 1) / subsampY;
+        if (width <= 0 || height <= 0) {
+            throw new IIOException("Source region is empty");
+        }
+        final int firstX = region.x + offsetX, firstY = region.y + offsetY;
+        final int rowWidth = region.width - offsetX;
+
+        clearAbortRequest();
+        processImageStarted(0);
+
+        // Build the palette.
+        final ColorIndexMap palette = new ColorIndexMap();
+        final int[] argbRow = new int[rowWidth];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(firstX, firstY + y * subsampY, rowWidth, 1,
+                    argbRow, 0, rowWidth);
+            for (int x = 0, srcX = 0; x < width; x++, srcX += subsampX) {
+                palette.add(key(argbRow[srcX]));
+            }
+            if (abortRequested()) {
+                processWriteAborted();
+                return;
+            }
+        }
+        processImageProgress(50);
+
+        // Assign codes.
+        final int[] colors = palette.colors();
+        final int cpp      = charsPerPixel(colors.length);
+        final byte[] codes = new byte[colors.length * cpp];
+        for (int i = 0; i < colors.length; i++) {
+            for (int c = cpp - 1, n = i; c >= 0; c--, n /= CODE_CHARS.length) {
+                codes[i * cpp + c] = CODE_CHARS[n % CODE_CHARS.length];
+            }
+        }
+
+        // Write the header.
+        final StringBuilder header = new StringBuilder();
+        header.append("/* XPM */\n");
+        header.append("static char *image[] = {\n");
+        header.append("/* columns rows colors chars-per-pixel */\n");
+        // The root locale formats ASCII digits regardless of the default.
+        header.append(String.format(Locale.ROOT, "\"%d %d %d %d\",\n",
+                width, height, colors.length, cpp));
+        for (int i = 0; i < colors.length; i++) {
+            header.append('"');
+            header.append(new String(codes, i * cpp, cpp, StandardCharsets.US_ASCII));
+            if (colors[i] == TRANSPARENT) {
+                header.append(" c None");
+            } else {
+                header.append(String.format(Locale.ROOT, " c #%06X",
+                        colors[i] & 0xffffff));
+            }
+            header.append("\",\n");
+        }
+        header.append("/* pixels */\n");
+        os.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+
+        // Write the pixels.
+        final byte[] line = new byte[width * cpp + 4];
+        line[0] = '"';
+        for (int y = 0; y < height; y++) {
+            image.getRGB(firstX, firstY + y * subsampY, rowWidth, 1,
+                    argbRow, 0, rowWidth);
+            int pos = 1;
+            for (int x = 0, srcX = 0; x < width; x++, srcX += subsampX) {
+                final int codeStart = palette.get(key(argbRow[srcX])) * cpp;
+                for (int c = 0; c < cpp; c++) {
+                    line[pos++] = codes[codeStart + c];
+                }
+            }
+            line[pos++] = '"';
+            if (y < height - 1) {
+                line[pos++] = ',';
+            }
+            line[pos++] = '\n';
+            os.write(line, 0, pos);
+
+            processImageProgress(50 + 50f * (y + 1) / height);
+            if (abortRequested()) {
+                processWriteAborted();
+                return;
+            }
+        }
+        os.write("};\n".getBytes(StandardCharsets.US_ASCII));
+        os.flush();
+        processImageComplete();
+    }
+
+}
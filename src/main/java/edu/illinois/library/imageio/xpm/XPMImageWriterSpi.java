@@ -0,0 +1,74 @@
+package edu.illinois.library.imageio.xpm;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.util.Locale;
+
+public class XPMImageWriterSpi extends ImageWriterSpi {
+
+    private static final String DESCRIPTION        = "XPM Image Writer";
+    private static final String VENDOR_NAME        = "University of Illinois at Urbana-Champaign Library";
+    // N.B.: this needs to be kept in sync with <version> in pom.xml
+    private static final String VERSION            = "1.0";
+    private static final String WRITER_CLASS_NAME  =
+            XPMImageWriter.class.getName();
+    private static final String[] NAMES            = { "xpm" };
+    private static final String[] SUFFIXES         = { "xpm" };
+    private static final String[] MIME_TYPES       = { "image/x-xpixmap" };
+    private static final String[] READER_SPI_NAMES =
+            { XPMImageReaderSpi.class.getName() };
+
+    private static final boolean SUPPORTS_STANDARD_STREAM_METADATA_FORMAT  = false;
+    private static final String NATIVE_STREAM_METADATA_FORMAT_NAME         = null;
+    private static final String NATIVE_STREAM_METADATA_FORMAT_CLASS_NAME   = null;
+    private static final String[] EXTRA_STREAM_METADATA_FORMAT_NAMES       = null;
+    private static final String[] EXTRA_STREAM_METADATA_FORMAT_CLASS_NAMES = null;
+    private static final boolean SUPPORTS_STANDARD_IMAGE_METADATA_FORMAT   = false;
+    private static final String NATIVE_IMAGE_METADATA_FORMAT_NAME          = null;
+    private static final String NATIVE_IMAGE_METADATA_FORMAT_CLASS_NAME    = null;
+    private static final String[] EXTRA_IMAGE_METADATA_FORMAT_NAMES        = null;
+    private static final String[] EXTRA_IMAGE_METADATA_FORMAT_CLASS_NAMES  = null;
+
+    public XPMImageWriterSpi() {
+        super(VENDOR_NAME,
+                VERSION,
+                NAMES,
+                SUFFIXES,
+                MIME_TYPES,
+                WRITER_CLASS_NAME,
+                new Class<?>[] { ImageOutputStream.class },
+                READER_SPI_NAMES,
+                SUPPORTS_STANDARD_STREAM_METADATA_FORMAT,
+                NATIVE_STREAM_METADATA_FORMAT_NAME,
+                NATIVE_STREAM_METADATA_FORMAT_CLASS_NAME,
+                EXTRA_STREAM_METADATA_FORMAT_NAMES,
+                EXTRA_STREAM_METADATA_FORMAT_CLASS_NAMES,
+                SUPPORTS_STANDARD_IMAGE_METADATA_FORMAT,
+                NATIVE_IMAGE_METADATA_FORMAT_NAME,
+                NATIVE_IMAGE_METADATA_FORMAT_CLASS_NAME,
+                EXTRA_IMAGE_METADATA_FORMAT_NAMES,
+                EXTRA_IMAGE_METADATA_FORMAT_CLASS_NAMES);
+    }
+
+    /**
+     * @return {@code true}, as any image can be converted to RGB colors
+     *         with (binary) transparency.
+     */
+    @Override
+    public boolean canEncodeImage(ImageTypeSpecifier type) {
+        return true;
+    }
+
+    @Override
+    public ImageWriter createWriterInstance(Object extension) {
+        return new XPMImageWriter(this);
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return DESCRIPTION;
+    }
+
+}
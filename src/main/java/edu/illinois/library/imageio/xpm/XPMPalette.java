@@ -0,0 +1,237 @@
+package edu.illinois.library.imageio.xpm;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * <p>Compiled form of an XPM color map that resolves pixel codes directly
+ * from bytes, without creating any {@link String}s or boxed keys.</p>
+ *
+ * <p>Each code is mapped to an index into the palette. For one and two
+ * characters per pixel, lookup tables indexed directly by the code are used.
+ * For three to {@link #MAX_CHARS_PER_PIXEL} characters per pixel, codes are
+ * packed into {@literal long}s and looked up in an open-addressing hash
+ * table.</p>
+ *
+ * <p>Effective colors for each {@link DisplayType} are computed once per
+ * palette entry and cached.</p>
+ */
+final class XPMPalette {
+
+    /**
+     * Maximum number of characters per pixel that can be packed into a
+     * {@literal long}.
+     */
+    static final int MAX_CHARS_PER_PIXEL = 8;
+
+    /**
+     * Maximum number of colors that can be represented by an {@link
+     * IndexColorModel} with byte-sized indices.
+     */
+    static final int MAX_INDEXED_COLORS = 256;
+
+    private static final int NOT_FOUND = -1;
+
+    private final int numCharsPerPixel;
+    private final XPMPixel[] pixels;
+
+    /**
+     * Direct lookup table used when {@link #numCharsPerPixel} is 1 or 2.
+     */
+    private int[] directTable;
+
+    /**
+     * Open-addressing hash table used when {@link #numCharsPerPixel} is
+     * greater than 2. Empty slots contain {@link #NOT_FOUND} in {@link
+     * #hashIndices}.
+     */
+    private long[] hashKeys;
+    private int[] hashIndices;
+    private int hashMask, hashShift;
+
+    private final Map<DisplayType,int[]> colors = new EnumMap<>(DisplayType.class);
+
+    /**
+     * @param colorMap         Map of pixel codes to pixels. The codes must
+     *                         consist of ASCII characters.
+     * @param numCharsPerPixel Length of every code in the map.
+     * @throws IllegalArgumentException if {@literal numCharsPerPixel} is
+     *         less than 1 or greater than {@link #MAX_CHARS_PER_PIXEL}.
+     */
+    XPMPalette(Map<String,XPMPixel> colorMap, int numCharsPerPixel) {
+        if (numCharsPerPixel < 1 || numCharsPerPixel > MAX_CHARS_PER_PIXEL) {
+            throw new IllegalArgumentException(
+                    "Unsupported number of characters per pixel: " +
+                            numCharsPerPixel);
+        }
+        this.numCharsPerPixel = numCharsPerPixel;
+        this.pixels           = new XPMPixel[colorMap.size()];
+
+        final long[] codes = new long[pixels.length];
+        int i = 0;
+        for (Map.Entry<String,XPMPixel> entry : colorMap.entrySet()) {
+            codes[i]  = packCode(entry.getKey());
+            pixels[i] = entry.getValue();
+            i++;
+        }
+
+        if (numCharsPerPixel <= 2) {
+            directTable = new int[1 << (8 * numCharsPerPixel)];
+            Arrays.fill(directTable, NOT_FOUND);
+            for (i = 0; i < codes.length; i++) {
+                directTable[(int) codes[i]] = i;
+            }
+        } else {
+            // Keep the load factor at or below 50%.
+            int capacity = Integer.highestOneBit(Math.max(2, codes.length) * 2);
+            if (capacity < codes.length * 2) {
+                capacity <<= 1;
+            }
+            hashKeys    = new long[capacity];
+            hashIndices = new int[capacity];
+            hashMask    = capacity - 1;
+            hashShift   = 64 - Integer.numberOfTrailingZeros(capacity);
+            Arrays.fill(hashIndices, NOT_FOUND);
+            for (i = 0; i < codes.length; i++) {
+                int slot = slot(codes[i]);
+                while (hashIndices[slot] != NOT_FOUND) {
+                    slot = (slot + 1) & hashMask;
+                }
+                hashKeys[slot]    = codes[i];
+                hashIndices[slot] = i;
+            }
+        }
+    }
+
+    /**
+     * @param code Pixel code of at most {@link #MAX_CHARS_PER_PIXEL} ASCII
+     *             characters.
+     * @return     Code packed into the low-order bytes of a {@literal long},
+     *             first character most significant.
+     */
+    static long packCode(String code) {
+        long packed = 0;
+        for (int i = 0; i < code.length(); i++) {
+            packed = (packed << 8) | (code.charAt(i) & 0xff);
+        }
+        return packed;
+    }
+
+    /**
+     * Fibonacci hashing of a packed code into a slot in the hash table.
+     */
+    private int slot(long code) {
+        return (int) ((code * 0x9e3779b97f4a7c15L) >>> hashShift) & hashMask;
+    }
+
+    /**
+     * @param displayType Display type.
+     * @return            Effective ARGB color of each palette entry for the
+     *                    given display type, in index order. The returned
+     *                    array must not be modified.
+     */
+    int[] getColors(DisplayType displayType) {
+        int[] typeColors = colors.get(displayType);
+        if (typeColors == null) {
+            typeColors = new int[pixels.length];
+            for (int i = 0; i < pixels.length; i++) {
+                typeColors[i] = pixels[i].getEffectiveColor(displayType);
+            }
+            colors.put(displayType, typeColors);
+        }
+        return typeColors;
+    }
+
+    /**
+     * @param displayType  Display type.
+     * @param bitsPerIndex 1, 2, 4, or 8. The palette {@link #size() size}
+     *                     must not exceed {@literal 2^bitsPerIndex}.
+     * @return             Color model whose indices correspond to palette
+     *                     indices. An alpha channel is present only if the
+     *                     palette contains any non-opaque colors.
+     */
+    IndexColorModel getIndexColorModel(DisplayType displayType,
+                                       int bitsPerIndex) {
+        return (IndexColorModel) getIndexedType(displayType, bitsPerIndex)
+                .getColorModel();
+    }
+
+    /**
+     * @param displayType  Display type.
+     * @param bitsPerIndex 1, 2, 4, or 8. The palette {@link #size() size}
+     *                     must not exceed {@literal 2^bitsPerIndex}.
+     * @return             Indexed image type whose indices correspond to
+     *                     palette indices. Types with fewer than 8 bits per
+     *                     index are packed.
+     */
+    ImageTypeSpecifier getIndexedType(DisplayType displayType,
+                                      int bitsPerIndex) {
+        final int mapSize = 1 << bitsPerIndex;
+        if (pixels.length > mapSize) {
+            throw new IllegalArgumentException(
+                    "Palette is too large for " + bitsPerIndex + " bits");
+        }
+        final int[] typeColors = getColors(displayType);
+        final byte[] r = new byte[mapSize], g = new byte[mapSize],
+                b = new byte[mapSize], a = new byte[mapSize];
+        boolean hasAlpha = false;
+        for (int i = 0; i < typeColors.length; i++) {
+            a[i] = (byte) (typeColors[i] >>> 24);
+            r[i] = (byte) (typeColors[i] >>> 16);
+            g[i] = (byte) (typeColors[i] >>> 8);
+            b[i] = (byte) typeColors[i];
+            hasAlpha |= (a[i] != (byte) 0xff);
+        }
+        return ImageTypeSpecifier.createIndexed(r, g, b, hasAlpha ? a : null,
+                bitsPerIndex, DataBuffer.TYPE_BYTE);
+    }
+
+    int getNumCharsPerPixel() {
+        return numCharsPerPixel;
+    }
+
+    XPMPixel getPixel(int index) {
+        return pixels[index];
+    }
+
+    /**
+     * @param bytes  Buffer containing a pixel code.
+     * @param offset Offset of the code within the buffer. There must be at
+     *               least {@link #getNumCharsPerPixel()} bytes available
+     *               starting at this offset.
+     * @return       Palette index of the code, or {@literal -1} if the code
+     *               is not present in the palette.
+     */
+    int indexOf(byte[] bytes, int offset) {
+        switch (numCharsPerPixel) {
+            case 1:
+                return directTable[bytes[offset] & 0xff];
+            case 2:
+                return directTable[((bytes[offset] & 0xff) << 8) |
+                        (bytes[offset + 1] & 0xff)];
+            default:
+                long code = 0;
+                for (int i = offset, end = offset + numCharsPerPixel; i < end; i++) {
+                    code = (code << 8) | (bytes[i] & 0xff);
+                }
+                int slot = slot(code);
+                int index;
+                while ((index = hashIndices[slot]) != NOT_FOUND) {
+                    if (hashKeys[slot] == code) {
+                        return index;
+                    }
+                    slot = (slot + 1) & hashMask;
+                }
+                return NOT_FOUND;
+        }
+    }
+
+    int size() {
+        return pixels.length;
+    }
+
+}
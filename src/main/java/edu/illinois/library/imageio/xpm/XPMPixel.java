@@ -1,12 +1,7 @@
 package edu.illinois.library.imageio.xpm;
 
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * <p>XPM pixel, which may be represented by up to four distinct colors that
@@ -17,13 +12,36 @@ import java.util.Set;
  * component ARGB value packed into a 32-bit integer. Components larger than 8
  * bits are rescaled to 8 bits.</p>
  *
+ * <p>{@link #parse(byte[], int, int)} only reads immutable static state, including the
+ * {@link X11ColorNames compiled color names}, so it may be called from any
+ * number of threads without contention.</p>
+ *
  * @author Alex Dolski UIUC
  */
 final class XPMPixel {
 
-    private static final Map<String,Integer> COLOR_NAMES = new HashMap<>();
-    private static final Set<String> DISPLAY_TYPES =
-            new HashSet<>(Arrays.asList("s", "m", "g", "g4", "c"));
+    /**
+     * Display type keys.
+     */
+    private static final int NOT_A_KEY = -1, KEY_S = 0, KEY_M = 1, KEY_G = 2,
+            KEY_G4 = 3, KEY_C = 4;
+
+    /**
+     * Value of each hexadecimal digit indexed by its ASCII code, or
+     * {@literal -1} for non-digits.
+     */
+    private static final int[] HEX_DIGITS = new int[256];
+
+    static {
+        Arrays.fill(HEX_DIGITS, -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_DIGITS['0' + i] = i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_DIGITS['a' + i] = 10 + i;
+            HEX_DIGITS['A' + i] = 10 + i;
+        }
+    }
 
     private int monoColor, fourLevelGrayColor, grayColor, rgbColor;
     private boolean isMonoColorSet, isFourLevelGrayColorSet, isGrayColorSet,
@@ -39,110 +57,220 @@ final class XPMPixel {
 
     private int rgbComponentSize = 8, grayComponentSize = 8;
 
-    private static synchronized void readColorNames() {
-        if (COLOR_NAMES.isEmpty()) {
-            COLOR_NAMES.putAll(new X11ColorNameReader().read());
-        }
-    }
-
     /**
      * @param line Color line with the leading "chars" string trimmed off.
+     * @return     Parsed pixel, or {@code null} if the line does not contain
+     *             any display type key.
+     * @see #parse(byte[], int, int)
      */
     static XPMPixel parse(String line) {
-        final XPMPixel pixel = new XPMPixel();
-        // Formulating a regex that can parse 100% of color lines found in
-        // real-world XPMs is a real challenge. So we will parse token-by-token.
-        // First remove surrounding quotes and then split on whitespace.
-        String[] tokens = line.replaceAll("[\",]", "").trim().split("[ \t]");
-        String displayType = "s";
-        List<String> colorTokens = new ArrayList<>();
-        for (String token : tokens) {
-            if (DISPLAY_TYPES.contains(token)) {
-                if (!colorTokens.isEmpty()) {
-                    finishParsingLine(pixel, displayType, colorTokens);
-                    colorTokens.clear();
+        final byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * <p>Parses a color line in a single pass over its bytes, without
+     * creating any intermediate objects for hexadecimal colors or for named
+     * colors consisting of single-space-separated words.</p>
+     *
+     * <p>Tokens are separated by whitespace, quotes, and commas. Each of the
+     * display type keys {@literal s}, {@literal m}, {@literal g}, {@literal
+     * g4}, and {@literal c} is followed by a color value consisting of all of
+     * the tokens up to the next key, which are joined by single spaces.</p>
+     *
+     * @param bytes Buffer containing the color line with the leading "chars"
+     *              string trimmed off.
+     * @param start Offset of the line within the buffer.
+     * @param end   Offset following the line within the buffer.
+     * @return      Parsed pixel, or {@code null} if the line does not
+     *              contain any display type key.
+     */
+    static XPMPixel parse(byte[] bytes, int start, int end) {
+        XPMPixel pixel = null;
+        int key = KEY_S, valueStart = -1, valueEnd = -1;
+        boolean isValueNormalized = true;
+        int pos = start;
+        while (pos < end) {
+            if (isSeparator(bytes[pos])) {
+                pos++;
+                continue;
+            }
+            final int tokenStart = pos;
+            while (pos < end && !isSeparator(bytes[pos])) {
+                pos++;
+            }
+            final int tokenKey = key(bytes, tokenStart, pos);
+            if (tokenKey != NOT_A_KEY) {
+                if (pixel == null) {
+                    pixel = new XPMPixel();
+                }
+                if (valueStart >= 0) {
+                    pixel.setColor(key, bytes, valueStart, valueEnd,
+                            isValueNormalized);
+                    valueStart = -1;
                 }
-                displayType = token;
-            } else if (!token.isEmpty()) {
-                colorTokens.add(token);
+                key = tokenKey;
+                isValueNormalized = true;
+            } else if (valueStart < 0) {
+                valueStart = tokenStart;
+                valueEnd   = pos;
+            } else {
+                // Multi-word values can be looked up in place only if their
+                // words are already separated by single spaces.
+                isValueNormalized &= (tokenStart == valueEnd + 1 &&
+                        bytes[valueEnd] == ' ');
+                valueEnd = pos;
             }
         }
-        if (!colorTokens.isEmpty()) {
-            finishParsingLine(pixel, displayType, colorTokens);
+        if (pixel != null && valueStart >= 0) {
+            pixel.setColor(key, bytes, valueStart, valueEnd, isValueNormalized);
         }
         return pixel;
     }
 
-    private static void finishParsingLine(XPMPixel pixel,
-                                          String displayType,
-                                          List<String> colorTokens) {
-        String color = String.join(" ", colorTokens);
-        switch (displayType) {
-            case "c":
-                pixel.rgbColor         = parseColorValue(color);
-                pixel.rgbComponentSize = componentSize(color);
-                pixel.isRGBColorSet    = true;
+    private static boolean isSeparator(byte b) {
+        return (b >= 0 && b <= ' ') || b == '"' || b == ',';
+    }
+
+    /**
+     * @return One of the {@literal KEY_} constants, or {@link #NOT_A_KEY}.
+     */
+    private static int key(byte[] bytes, int start, int end) {
+        switch (end - start) {
+            case 1:
+                switch (bytes[start]) {
+                    case 'c': return KEY_C;
+                    case 'g': return KEY_G;
+                    case 'm': return KEY_M;
+                    case 's': return KEY_S;
+                    default:  return NOT_A_KEY;
+                }
+            case 2:
+                return (bytes[start] == 'g' && bytes[start + 1] == '4') ?
+                        KEY_G4 : NOT_A_KEY;
+            default:
+                return NOT_A_KEY;
+        }
+    }
+
+    /**
+     * Sets the color for the given display type key.
+     *
+     * @param isNormalized Whether the words of the value are separated by
+     *                     single spaces.
+     */
+    private void setColor(int key,
+                          byte[] bytes,
+                          int start,
+                          int end,
+                          boolean isNormalized) {
+        switch (key) {
+            case KEY_C:
+                rgbColor         = parseColorValue(bytes, start, end, isNormalized);
+                rgbComponentSize = componentSize(bytes, start, end);
+                isRGBColorSet    = true;
                 break;
-            case "g":
-                pixel.grayColor         = parseColorValue(color);
-                pixel.grayComponentSize = componentSize(color);
-                pixel.isGrayColorSet    = true;
+            case KEY_G:
+                grayColor         = parseColorValue(bytes, start, end, isNormalized);
+                grayComponentSize = componentSize(bytes, start, end);
+                isGrayColorSet    = true;
                 break;
-            case "g4":
-                pixel.fourLevelGrayColor      = parseColorValue(color);
-                pixel.isFourLevelGrayColorSet = true;
+            case KEY_G4:
+                fourLevelGrayColor      = parseColorValue(bytes, start, end, isNormalized);
+                isFourLevelGrayColorSet = true;
                 break;
-            case "m":
-                pixel.monoColor      = parseColorValue(color);
-                pixel.isMonoColorSet = true;
+            case KEY_M:
+                monoColor      = parseColorValue(bytes, start, end, isNormalized);
+                isMonoColorSet = true;
                 break;
-            case "s":
-                break; // we don't care about symbols
             default:
-                throw new IllegalArgumentException(
-                        "Invalid display type: " + displayType);
+                break; // we don't care about symbols
         }
     }
 
-    private static int parseColorValue(String color) {
-        readColorNames();
-        if (color.equalsIgnoreCase("none")) {
+    private static int parseColorValue(byte[] bytes,
+                                       int start,
+                                       int end,
+                                       boolean isNormalized) {
+        if (end - start == 4 &&
+                (bytes[start]     | 0x20) == 'n' &&
+                (bytes[start + 1] | 0x20) == 'o' &&
+                (bytes[start + 2] | 0x20) == 'n' &&
+                (bytes[start + 3] | 0x20) == 'e') {
             return 0;
-        } else if (color.startsWith("#")) {
-            int a = 0xff, r, g, b;
-            if (color.length() > 8) { // #rrrrggggbbbb (16-bit)
-                r = Integer.parseInt(color.substring(1, 5), 16);
-                g = Integer.parseInt(color.substring(5, 9), 16);
-                b = Integer.parseInt(color.substring(9, 13), 16);
-                double eightBit = Math.pow(2, 8) - 1;
-                double sixteenBit = Math.pow(2, 16) - 1;
-                r = (int) Math.round((r / sixteenBit) * eightBit);
-                g = (int) Math.round((g / sixteenBit) * eightBit);
-                b = (int) Math.round((b / sixteenBit) * eightBit);
-            } else if (color.length() > 6) { // #rrggbb (8-bit)
-                r = Integer.parseInt(color.substring(1, 3), 16);
-                g = Integer.parseInt(color.substring(3, 5), 16);
-                b = Integer.parseInt(color.substring(5, 7), 16);
-            } else { // #rgb (8-bit shorthand)
-                String tmp = color.substring(1, 2);
-                tmp += tmp;
-                r = Integer.parseInt(tmp, 16);
-                tmp = color.substring(2, 3);
-                tmp += tmp;
-                g = Integer.parseInt(tmp, 16);
-                tmp = color.substring(3, 4);
-                tmp += tmp;
-                b = Integer.parseInt(tmp, 16);
-            }
-            return packARGB(a, r, g, b);
-        } else if (COLOR_NAMES.containsKey(color)) {
-            return COLOR_NAMES.get(color);
+        } else if (bytes[start] == '#') {
+            return parseHexColor(bytes, start, end);
+        }
+        final int namedColor = isNormalized ?
+                X11ColorNames.get(bytes, start, end) :
+                X11ColorNames.get(normalize(bytes, start, end));
+        if (namedColor != X11ColorNames.NOT_FOUND) {
+            return namedColor;
         }
         return 0xff000000;
     }
 
-    private static int componentSize(String colorValue) {
-        return (colorValue.startsWith("#") && colorValue.length() > 7) ? 16 : 8;
+    /**
+     * @return Value with its words separated by single spaces.
+     */
+    private static String normalize(byte[] bytes, int start, int end) {
+        final StringBuilder builder = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            if (!isSeparator(bytes[i])) {
+                if (i > start && isSeparator(bytes[i - 1])) {
+                    builder.append(' ');
+                }
+                builder.append((char) (bytes[i] & 0xff));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * <p>Parses a hexadecimal color of any of the forms {@literal #rgb},
+     * {@literal #rrggbb}, {@literal #rrrgggbbb}, and {@literal
+     * #rrrrggggbbbb}, i.e. with 4, 8, 12, or 16 bits per component, which are
+     * rescaled to 8 bits.</p>
+     *
+     * @param start Offset of the leading {@literal #}.
+     * @throws NumberFormatException if the number of digits is not one of
+     *         the above, or any of them is invalid.
+     */
+    private static int parseHexColor(byte[] bytes, int start, int end) {
+        final int numDigits = end - start - 1;
+        if (numDigits < 3 || numDigits > 12 || numDigits % 3 != 0) {
+            throw new NumberFormatException("Invalid hexadecimal color: " +
+                    new String(bytes, start, end - start,
+                            StandardCharsets.ISO_8859_1));
+        }
+        final int digitsPerComponent = numDigits / 3;
+        final int max = (1 << (4 * digitsPerComponent)) - 1;
+        int pos = start + 1, argb = 0xff;
+        for (int c = 0; c < 3; c++) {
+            int value = 0, invalid = 0;
+            for (int d = 0; d < digitsPerComponent; d++, pos++) {
+                final int nibble = HEX_DIGITS[bytes[pos] & 0xff];
+                invalid |= nibble;
+                value = (value << 4) | nibble;
+            }
+            if (invalid < 0) {
+                throw new NumberFormatException("Invalid hexadecimal color: " +
+                        new String(bytes, start, end - start,
+                                StandardCharsets.ISO_8859_1));
+            }
+            // Rescale to 8 bits, rounding to nearest. (There are no ties
+            // for any of the widths.)
+            argb = (argb << 8) | ((value * 255 + max / 2) / max);
+        }
+        return argb;
+    }
+
+    /**
+     * @return Number of bits per component of the given color value, which
+     *         is 8 for named colors and 4- or 8-bit hexadecimal colors.
+     */
+    private static int componentSize(byte[] bytes, int start, int end) {
+        return (bytes[start] == '#') ? Math.max(8, (end - start - 1) / 3 * 4) : 8;
     }
 
     private static int convertToGrayscale(int argb) {
@@ -167,6 +295,22 @@ final class XPMPixel {
 
     private XPMPixel() {}
 
+    /**
+     * @return Effective color for the given display type.
+     * @see XPMImageReadParam#setDisplayType(DisplayType)
+     */
+    int getEffectiveColor(DisplayType displayType) {
+        switch (displayType) {
+            case GRAYSCALE:
+            case FOUR_LEVEL_GRAYSCALE:
+                return getEffectiveGrayColor();
+            case MONOCHROME:
+                return getEffectiveMonoColor();
+            default:
+                return getEffectiveRGBColor();
+        }
+    }
+
     /**
      * @return Effective 8-bit grayscale ARGB color.
      */
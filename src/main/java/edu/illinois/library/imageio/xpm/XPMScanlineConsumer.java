@@ -0,0 +1,22 @@
+package edu.illinois.library.imageio.xpm;
+
+import java.io.IOException;
+
+/**
+ * Receives decoded rows from {@link XPMImageReader#readScanlines(int,
+ * javax.imageio.ImageReadParam, XPMScanlineConsumer)} one at a time.
+ */
+@FunctionalInterface
+public interface XPMScanlineConsumer {
+
+    /**
+     * @param row ARGB colors of the pixels in the row. The array is owned by
+     *            the reader and overwritten with the next row after this
+     *            method returns, so its contents must be copied in order to
+     *            be retained.
+     * @param y   Index of the row among the rows of the subsampled source
+     *            region, starting at 0.
+     */
+    void accept(int[] row, int y) throws IOException;
+
+}
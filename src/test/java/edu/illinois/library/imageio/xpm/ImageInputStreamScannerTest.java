@@ -0,0 +1,192 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOException;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageInputStreamScannerTest {
+
+    private static ImageInputStreamScanner newInstance(String contents)
+            throws IOException {
+        ImageInputStream is = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(contents.getBytes(StandardCharsets.US_ASCII)));
+        return new ImageInputStreamScanner(is);
+    }
+
+    private static ImageInputStreamScanner newInstance(String contents,
+                                                       int bufferSize)
+            throws IOException {
+        ImageInputStream is = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(contents.getBytes(StandardCharsets.US_ASCII)));
+        return new ImageInputStreamScanner(is, bufferSize);
+    }
+
+    private static String slice(ImageInputStreamScanner instance) {
+        return new String(instance.buffer(), instance.sliceStart(),
+                instance.sliceEnd() - instance.sliceStart(),
+                StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void nextLineWithLineLongerThanBuffer() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        String line = builder.toString();
+        ImageInputStreamScanner instance = newInstance(line + "\nnext");
+        assertTrue(instance.nextLine());
+        assertEquals(line, slice(instance));
+        assertTrue(instance.nextLine());
+        assertEquals("next", slice(instance));
+    }
+
+    @Test
+    void nextLine() throws Exception {
+        ImageInputStreamScanner instance = newInstance("one\ntwo\r\n\nthree\rfour");
+        assertTrue(instance.nextLine());
+        assertEquals("one", slice(instance));
+        assertTrue(instance.nextLine());
+        assertEquals("two", slice(instance));
+        assertTrue(instance.nextLine());
+        assertEquals("", slice(instance));
+        assertTrue(instance.nextLine());
+        assertEquals("three", slice(instance));
+        assertTrue(instance.nextLine());
+        assertEquals("four", slice(instance));
+        assertFalse(instance.nextLine());
+    }
+
+    @Test
+    void nextLineWithCRLFAcrossBufferBoundary() throws Exception {
+        // Fill the initial buffer exactly up to and including the CR.
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 8191; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        String line = builder.toString();
+        ImageInputStreamScanner instance = newInstance(line + "\r\nnext");
+        assertTrue(instance.nextLine());
+        assertEquals(line, slice(instance));
+        assertEquals(8193, instance.position());
+        assertTrue(instance.nextLine());
+        assertEquals("next", slice(instance));
+    }
+
+    @Test
+    void nextQuotedString() throws Exception {
+        ImageInputStreamScanner instance = newInstance(
+                "\"abc\",\n/* comment \"xyz\" */\n// \"xyz\"\n\"def\"\n};");
+        assertTrue(instance.nextQuotedString());
+        assertEquals("abc", slice(instance));
+        assertTrue(instance.nextQuotedString());
+        assertEquals("def", slice(instance));
+        assertFalse(instance.nextQuotedString());
+    }
+
+    @Test
+    void nextQuotedStringWithCommentMarkersInsideString() throws Exception {
+        ImageInputStreamScanner instance = newInstance("\"a/*b\",\n\"c*/d\"");
+        assertTrue(instance.nextQuotedString());
+        assertEquals("a/*b", slice(instance));
+        assertTrue(instance.nextQuotedString());
+        assertEquals("c*/d", slice(instance));
+        assertFalse(instance.nextQuotedString());
+    }
+
+    @Test
+    void nextQuotedStringWithUnterminatedString() throws Exception {
+        ImageInputStreamScanner instance = newInstance("\"abc");
+        assertFalse(instance.nextQuotedString());
+    }
+
+    @Test
+    void seekWithinBuffer() throws Exception {
+        ImageInputStreamScanner instance = newInstance("\"abc\"\n\"def\"\n");
+        instance.nextQuotedString();
+        instance.nextQuotedString();
+        assertEquals(7, instance.slicePosition());
+        instance.seek(0);
+        assertTrue(instance.nextQuotedString());
+        assertEquals("abc", slice(instance));
+        assertEquals(1, instance.slicePosition());
+    }
+
+    @Test
+    void seekBeyondBuffer() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.append(String.format("\"%05d\"\n", i));
+        }
+        ImageInputStreamScanner instance = newInstance(builder.toString());
+        instance.seek(8 * 4000);
+        assertTrue(instance.nextQuotedString());
+        assertEquals("04000", slice(instance));
+        instance.seek(8 * 10);
+        assertTrue(instance.nextQuotedString());
+        assertEquals("00010", slice(instance));
+        assertEquals(8 * 10 + 1, instance.slicePosition());
+    }
+
+    @Test
+    void position() throws Exception {
+        ImageInputStreamScanner instance = newInstance("one\n\"two\"\n");
+        assertEquals(0, instance.position());
+        instance.nextLine();
+        assertEquals(4, instance.position());
+        instance.nextQuotedString();
+        assertEquals(9, instance.position());
+    }
+
+    @Test
+    void setMaxPosition() throws Exception {
+        ImageInputStreamScanner instance = newInstance("one\ntwo\n");
+        instance.setMaxPosition(8);
+        assertTrue(instance.nextLine());
+        assertEquals("one", slice(instance));
+        assertTrue(instance.nextLine());
+        assertEquals("two", slice(instance));
+        assertFalse(instance.nextLine());
+
+        instance = newInstance("one\ntwo\nthree\n");
+        instance.setMaxPosition(8);
+        assertThrows(IIOException.class, instance::nextLine);
+    }
+
+    @Test
+    void setMaxLineLength() throws Exception {
+        ImageInputStreamScanner instance = newInstance("0123456789\r\n\"0123456789\"", 4);
+        instance.setMaxLineLength(10);
+        assertTrue(instance.nextLine());
+        assertEquals("0123456789", slice(instance));
+        assertTrue(instance.nextQuotedString());
+        assertEquals("0123456789", slice(instance));
+
+        instance = newInstance("0123456789abc\n", 4);
+        instance.setMaxLineLength(10);
+        assertThrows(IIOException.class, instance::nextLine);
+
+        instance = newInstance("\"0123456789ab\"", 4);
+        instance.setMaxLineLength(10);
+        assertThrows(IIOException.class, instance::nextQuotedString);
+    }
+
+    @Test
+    void nextQuotedStringWithUnterminatedStringLongerThanDefaultMaxLineLength()
+            throws Exception {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i <= ImageInputStreamScanner.DEFAULT_MAX_LINE_LENGTH; i++) {
+            builder.append('a');
+        }
+        ImageInputStreamScanner instance = newInstance(builder.toString());
+        assertThrows(IIOException.class, instance::nextQuotedString);
+    }
+
+}
@@ -0,0 +1,95 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileImageInputStreamTest {
+
+    private Path file;
+    private MappedFileImageInputStream instance;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile(getClass().getSimpleName(), ".tmp");
+        Files.write(file, "/* XPM */\nabc".getBytes(StandardCharsets.US_ASCII));
+        instance = new MappedFileImageInputStream(file);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        instance.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void close() throws Exception {
+        MappedFileImageInputStream stream = new MappedFileImageInputStream(file);
+        stream.close();
+        assertThrows(IOException.class, stream::read);
+    }
+
+    @Test
+    void constructorWithMissingFile() {
+        assertThrows(IOException.class, () -> new MappedFileImageInputStream(
+                file.resolveSibling(file.getFileName() + ".missing")));
+    }
+
+    @Test
+    void length() {
+        assertEquals(13, instance.length());
+    }
+
+    @Test
+    void read() throws Exception {
+        assertEquals('/', instance.read());
+        assertEquals('*', instance.read());
+        assertEquals(2, instance.getStreamPosition());
+    }
+
+    @Test
+    void readAtEndOfFile() throws Exception {
+        instance.seek(13);
+        assertEquals(-1, instance.read());
+        assertEquals(-1, instance.read(new byte[4], 0, 4));
+    }
+
+    @Test
+    void readWithArray() throws Exception {
+        byte[] bytes = new byte[20];
+        assertEquals(9, instance.read(bytes, 2, 9));
+        assertEquals("/* XPM */", new String(bytes, 2, 9, StandardCharsets.US_ASCII));
+        assertEquals(4, instance.read(bytes, 0, 20));
+        assertEquals("\nabc", new String(bytes, 0, 4, StandardCharsets.US_ASCII));
+        assertEquals(13, instance.getStreamPosition());
+    }
+
+    @Test
+    void readWithArrayOutOfBounds() {
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> instance.read(new byte[4], 2, 3));
+    }
+
+    @Test
+    void readLine() throws Exception {
+        assertEquals("/* XPM */", instance.readLine());
+        assertEquals("abc", instance.readLine());
+        assertNull(instance.readLine());
+    }
+
+    @Test
+    void seek() throws Exception {
+        instance.seek(10);
+        assertEquals('a', instance.read());
+        instance.seek(0);
+        assertEquals('/', instance.read());
+    }
+
+}
@@ -0,0 +1,187 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowWriterTest {
+
+    private static final int[] COLORS = {
+            0xffff0000, 0xff00ff00, 0xff0000ff, 0x00000000, 0xffffffff,
+            0xff123456, 0x80808080, 0xff000000 };
+
+    /**
+     * Writes rows with {@link RowWriter} and with {@link
+     * BufferedImage#setRGB(int, int, int)} and asserts that the rasters are
+     * identical.
+     */
+    private static void assertWritesLikeSetRGB(BufferedImage actual,
+                                               BufferedImage expected) {
+        final int width = actual.getWidth(), height = actual.getHeight();
+        final RowWriter instance = RowWriter.create(actual, COLORS);
+        final int[] indices = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Negative indices leave pixels untouched.
+                indices[x] = ((x + y) % 11 == 0) ? -1 : (x * 3 + y) % COLORS.length;
+                if (indices[x] >= 0) {
+                    expected.setRGB(x, y, COLORS[indices[x]]);
+                }
+            }
+            // Write the row in two parts to exercise destX.
+            final int split = y % width;
+            instance.write(indices, split, 0, y);
+            System.arraycopy(indices, split, indices, 0, width - split);
+            instance.write(indices, width - split, split, y);
+        }
+        assertRastersEqual(expected.getRaster(), actual.getRaster());
+    }
+
+    private static void assertRastersEqual(Raster expected, Raster actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertArrayEquals(
+                        expected.getPixel(x, y, (int[]) null),
+                        actual.getPixel(x, y, (int[]) null),
+                        "(" + x + ", " + y + ")");
+            }
+        }
+    }
+
+    private static void assertWritesLikeSetRGB(int type) {
+        // Odd width so that packed rows do not end on a byte boundary.
+        assertWritesLikeSetRGB(new BufferedImage(13, 7, type),
+                new BufferedImage(13, 7, type));
+    }
+
+    @Test
+    void writeWithIntARGB() {
+        assertWritesLikeSetRGB(BufferedImage.TYPE_INT_ARGB);
+    }
+
+    @Test
+    void writeWithIntARGBPre() {
+        assertWritesLikeSetRGB(BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    @Test
+    void writeWithIntRGB() {
+        assertWritesLikeSetRGB(BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Test
+    void writeWithIntBGR() {
+        assertWritesLikeSetRGB(BufferedImage.TYPE_INT_BGR);
+    }
+
+    @Test
+    void writeWith3ByteBGR() {
+        assertWritesLikeSetRGB(BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    @Test
+    void writeWith4ByteABGR() {
+        assertWritesLikeSetRGB(BufferedImage.TYPE_4BYTE_ABGR);
+    }
+
+    @Test
+    void writeWithByteGray() {
+        assertWritesLikeSetRGB(BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    @Test
+    void writeWithByteBinary() {
+        assertWritesLikeSetRGB(BufferedImage.TYPE_BYTE_BINARY);
+    }
+
+    @Test
+    void writeWithByteIndexed() {
+        assertWritesLikeSetRGB(BufferedImage.TYPE_BYTE_INDEXED);
+    }
+
+    @Test
+    void writeWithUShortGray() {
+        assertWritesLikeSetRGB(BufferedImage.TYPE_USHORT_GRAY);
+    }
+
+    @Test
+    void writeWithPackedPaletteColorModel() {
+        IndexColorModel colorModel = paletteColorModel(4);
+        assertWritesLikeSetRGB(
+                new BufferedImage(13, 7, BufferedImage.TYPE_BYTE_BINARY, colorModel),
+                new BufferedImage(13, 7, BufferedImage.TYPE_BYTE_BINARY, colorModel));
+    }
+
+    @Test
+    void writeWithPaletteColorModelAndDuplicateColors() {
+        int[] colors = { 0xff000000, 0xff000000 };
+        IndexColorModel colorModel = new IndexColorModel(8, 2, colors, 0,
+                false, -1, DataBuffer.TYPE_BYTE);
+        BufferedImage image = new BufferedImage(2, 1,
+                BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+        RowWriter.create(image, colors).write(new int[] { 0, 1 }, 2, 0, 0);
+        // Indices are written as-is rather than resolved to the first match.
+        assertEquals(0, image.getRaster().getSample(0, 0, 0));
+        assertEquals(1, image.getRaster().getSample(1, 0, 0));
+    }
+
+    @Test
+    void writeWithSubimage() {
+        BufferedImage actual = new BufferedImage(20, 12, BufferedImage.TYPE_3BYTE_BGR)
+                .getSubimage(3, 2, 13, 7);
+        BufferedImage expected = new BufferedImage(20, 12, BufferedImage.TYPE_3BYTE_BGR)
+                .getSubimage(3, 2, 13, 7);
+        assertWritesLikeSetRGB(actual, expected);
+    }
+
+    @Test
+    void writeWithPackedSubimage() {
+        BufferedImage actual = new BufferedImage(20, 12, BufferedImage.TYPE_BYTE_BINARY)
+                .getSubimage(3, 2, 13, 7);
+        BufferedImage expected = new BufferedImage(20, 12, BufferedImage.TYPE_BYTE_BINARY)
+                .getSubimage(3, 2, 13, 7);
+        assertWritesLikeSetRGB(actual, expected);
+    }
+
+    private static IndexColorModel paletteColorModel(int bits) {
+        int[] colors = new int[1 << bits];
+        System.arraycopy(COLORS, 0, colors, 0, Math.min(COLORS.length, colors.length));
+        return new IndexColorModel(bits, colors.length, colors, 0, true, -1,
+                DataBuffer.TYPE_BYTE);
+    }
+
+    @Test
+    void copy() {
+        // Direct writers share their converted colors and have no other
+        // state, so they are their own copies.
+        final int[] types = { BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_BINARY };
+        for (int type : types) {
+            RowWriter instance = RowWriter.create(
+                    new BufferedImage(13, 7, type), COLORS);
+            assertSame(instance, instance.copy());
+        }
+        // The setRGB() fallback has a row buffer of its own.
+        final BufferedImage image =
+                new BufferedImage(13, 7, BufferedImage.TYPE_USHORT_GRAY);
+        final RowWriter instance = RowWriter.create(image, COLORS);
+        final RowWriter copy     = instance.copy();
+        assertNotSame(instance, copy);
+        copy.write(new int[] { 4 }, 1, 2, 3);
+        assertEquals(0xffffffff, image.getRGB(2, 3));
+    }
+
+    @Test
+    void createWithRow() {
+        final int[] row = new int[5];
+        final RowWriter instance = RowWriter.create(row, COLORS);
+        instance.write(new int[] { 1, -1, 7 }, 3, 2, 9);
+        assertArrayEquals(new int[] { 0, 0, COLORS[1], 0, COLORS[7] }, row);
+    }
+
+}
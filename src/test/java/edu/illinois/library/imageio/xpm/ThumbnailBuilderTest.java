@@ -0,0 +1,102 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThumbnailBuilderTest {
+
+    /**
+     * @return Alpha-weighted average of the given block of the given rows,
+     *         computed directly.
+     */
+    private static int average(int[][] rows, int x0, int y0, int size) {
+        long n = 0, a = 0, r = 0, g = 0, b = 0;
+        for (int y = y0; y < Math.min(y0 + size, rows.length); y++) {
+            for (int x = x0; x < Math.min(x0 + size, rows[y].length); x++) {
+                int argb = rows[y][x];
+                long alpha = argb >>> 24;
+                n++;
+                a += alpha;
+                r += ((argb >> 16) & 0xff) * alpha;
+                g += ((argb >> 8) & 0xff) * alpha;
+                b += (argb & 0xff) * alpha;
+            }
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return (int) ((a + n / 2) / n) << 24 |
+                (int) ((r + a / 2) / a) << 16 |
+                (int) ((g + a / 2) / a) << 8 |
+                (int) ((b + a / 2) / a);
+    }
+
+    @Test
+    void finish() {
+        final int width = 37, height = 23;
+        final int[][] rows = new int[height][width];
+        final Random random = new Random(42);
+        ThumbnailBuilder instance = new ThumbnailBuilder(width, height, 3);
+        for (int[] row : rows) {
+            for (int x = 0; x < width; x++) {
+                row[x] = random.nextBoolean() ? 0 : random.nextInt();
+            }
+            instance.addRow(row, width);
+        }
+        BufferedImage[] thumbnails = instance.finish();
+        assertEquals(3, thumbnails.length);
+        for (int i = 0; i < thumbnails.length; i++) {
+            final int size = 2 << i;
+            assertEquals((width + size - 1) / size, thumbnails[i].getWidth());
+            assertEquals((height + size - 1) / size, thumbnails[i].getHeight());
+            for (int y = 0; y < thumbnails[i].getHeight(); y++) {
+                for (int x = 0; x < thumbnails[i].getWidth(); x++) {
+                    assertEquals(average(rows, x * size, y * size, size),
+                            thumbnails[i].getRGB(x, y), i + ": " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    void finishWithMissingRows() {
+        ThumbnailBuilder instance = new ThumbnailBuilder(4, 4, 1);
+        instance.addRow(new int[] { 0xffff0000, 0xffff0000, 0xff0000ff }, 3);
+        BufferedImage thumbnail = instance.finish()[0];
+        // Missing pixels and rows are transparent.
+        assertEquals(0x80ff0000, thumbnail.getRGB(0, 0));
+        assertEquals(0x400000ff, thumbnail.getRGB(1, 0));
+        assertEquals(0, thumbnail.getRGB(0, 1));
+    }
+
+    @Test
+    void getNumThumbnails() {
+        assertEquals(0, ThumbnailBuilder.getNumThumbnails(1, 1));
+        assertEquals(1, ThumbnailBuilder.getNumThumbnails(2, 1));
+        assertEquals(1, ThumbnailBuilder.getNumThumbnails(22, 22));
+        assertEquals(2, ThumbnailBuilder.getNumThumbnails(64, 10));
+        assertEquals(6, ThumbnailBuilder.getNumThumbnails(10, 1000));
+        assertEquals(27, ThumbnailBuilder.getNumThumbnails(
+                Integer.MAX_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void getNumPixels() {
+        assertEquals(0, ThumbnailBuilder.getNumPixels(22, 22, 0));
+        assertEquals(11 * 11, ThumbnailBuilder.getNumPixels(22, 22, 1));
+        // 32x5, 16x3
+        assertEquals(32 * 5 + 16 * 3, ThumbnailBuilder.getNumPixels(64, 10, 2));
+    }
+
+    @Test
+    void getThumbnailSize() {
+        assertEquals(11, ThumbnailBuilder.getThumbnailSize(22, 0));
+        assertEquals(6, ThumbnailBuilder.getThumbnailSize(22, 1));
+        assertEquals(1, ThumbnailBuilder.getThumbnailSize(1, 3));
+    }
+
+}
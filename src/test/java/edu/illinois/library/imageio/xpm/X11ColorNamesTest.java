@@ -0,0 +1,55 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class X11ColorNamesTest {
+
+    @Test
+    void get() {
+        assertEquals(0xffa2b5cd, X11ColorNames.get("LightSteelBlue3"));
+        assertEquals(0xfff8f8ff, X11ColorNames.get("ghost white"));
+    }
+
+    @Test
+    void getWithByteRange() {
+        byte[] bytes = "c LightSteelBlue3 m ghost white".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xffa2b5cd, X11ColorNames.get(bytes, 2, 17));
+        assertEquals(0xfff8f8ff, X11ColorNames.get(bytes, 20, bytes.length));
+        assertEquals(X11ColorNames.NOT_FOUND, X11ColorNames.get(bytes, 2, 10));
+    }
+
+    @Test
+    void getWithByteRangeAgreesWithString() {
+        for (String name : X11ColorTable.NAMES) {
+            for (String variant : new String[] {
+                    name, name.toLowerCase(), name.toUpperCase() }) {
+                byte[] bytes = variant.getBytes(StandardCharsets.US_ASCII);
+                assertEquals(X11ColorNames.get(variant),
+                        X11ColorNames.get(bytes, 0, bytes.length), variant);
+            }
+        }
+    }
+
+    @Test
+    void getIsCaseInsensitive() {
+        assertEquals(0xffa2b5cd, X11ColorNames.get("lightsteelblue3"));
+        assertEquals(0xffa2b5cd, X11ColorNames.get("LIGHTSTEELBLUE3"));
+        assertEquals(0xfff8f8ff, X11ColorNames.get("Ghost White"));
+    }
+
+    @Test
+    void getWithUnknownName() {
+        assertEquals(X11ColorNames.NOT_FOUND, X11ColorNames.get("bogus"));
+        assertEquals(X11ColorNames.NOT_FOUND, X11ColorNames.get(""));
+    }
+
+    @Test
+    void size() {
+        assertTrue(X11ColorNames.size() > 750);
+    }
+
+}
@@ -0,0 +1,78 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XPMHeaderCacheTest {
+
+    private XPMHeaderCache instance;
+
+    private static XPMHeader newHeader() {
+        return new XPMHeader(1, 1, 1, 1,
+                Collections.singletonMap(".", XPMPixel.parse("c red")),
+                null, 0);
+    }
+
+    @BeforeEach
+    void setUp() {
+        instance = new XPMHeaderCache();
+    }
+
+    @Test
+    void getInstance() {
+        assertSame(XPMHeaderCache.getInstance(), XPMHeaderCache.getInstance());
+    }
+
+    @Test
+    void clear() {
+        instance.put("a", newHeader());
+        instance.clear();
+        assertEquals(0, instance.size());
+        assertNull(instance.get("a"));
+    }
+
+    @Test
+    void getCountsHitsAndMisses() {
+        XPMHeader header = newHeader();
+        instance.put("a", header);
+        assertSame(header, instance.get("a"));
+        assertSame(header, instance.get("a"));
+        assertNull(instance.get("b"));
+        assertEquals(2, instance.getHitCount());
+        assertEquals(1, instance.getMissCount());
+    }
+
+    @Test
+    void putEvictsLeastRecentlyUsedHeaders() {
+        instance.setMaxSize(2);
+        instance.put("a", newHeader());
+        instance.put("b", newHeader());
+        instance.get("a");
+        instance.put("c", newHeader());
+        assertEquals(2, instance.size());
+        assertNotNull(instance.get("a"));
+        assertNull(instance.get("b"));
+        assertNotNull(instance.get("c"));
+    }
+
+    @Test
+    void setMaxSizeEvictsExcessHeaders() {
+        instance.put("a", newHeader());
+        instance.put("b", newHeader());
+        instance.put("c", newHeader());
+        instance.setMaxSize(1);
+        assertEquals(1, instance.size());
+        assertNotNull(instance.get("c"));
+    }
+
+    @Test
+    void setMaxSizeWithIllegalArgument() {
+        assertThrows(IllegalArgumentException.class,
+                () -> instance.setMaxSize(-1));
+    }
+
+}
@@ -0,0 +1,143 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.FileImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XPMImageCacheTest {
+
+    /**
+     * Size of {@literal xpm.xpm} decoded into {@link
+     * BufferedImage#TYPE_INT_ARGB}.
+     */
+    private static final long IMAGE_SIZE = 22 * 22 * 4;
+
+    private XPMImageCache instance;
+    private AtomicInteger numDecodes;
+
+    @BeforeAll
+    static void beforeClass() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @BeforeEach
+    void setUp() {
+        instance   = new XPMImageCache(IMAGE_SIZE * 2);
+        numDecodes = new AtomicInteger();
+    }
+
+    private BufferedImage read(Object key, ImageReadParam param)
+            throws Exception {
+        return instance.read(key, param, () -> {
+            numDecodes.incrementAndGet();
+            return new FileImageInputStream(
+                    new File("./src/test/resources/xpm.xpm"));
+        });
+    }
+
+    @Test
+    void constructorWithIllegalArgument() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new XPMImageCache(-1));
+    }
+
+    @Test
+    void clear() throws Exception {
+        read("a", null);
+        instance.clear();
+        assertEquals(0, instance.getNumImages());
+        assertEquals(0, instance.getSize());
+    }
+
+    @Test
+    void read() throws Exception {
+        BufferedImage image = read("a", null);
+        assertXPMImage(image);
+        assertSame(image, read("a", null));
+        assertEquals(1, numDecodes.get());
+        assertEquals(1, instance.getHitCount());
+        assertEquals(1, instance.getMissCount());
+        assertEquals(IMAGE_SIZE, instance.getSize());
+    }
+
+    @Test
+    void readWithDifferentParameters() throws Exception {
+        XPMImageReadParam param = new XPMImageReadParam();
+        BufferedImage image = read("a", param);
+        assertSame(image, read("a", null));
+
+        param.setDisplayType(DisplayType.MONOCHROME);
+        assertNotSame(image, read("a", param));
+
+        param = new XPMImageReadParam();
+        param.setSourceRegion(new Rectangle(0, 0, 10, 10));
+        assertNotSame(image, read("a", param));
+        assertEquals(3, numDecodes.get());
+    }
+
+    @Test
+    void readWithStricterLimits() throws Exception {
+        read("a", null);
+
+        XPMImageReadParam param = new XPMImageReadParam();
+        param.setMaxPixels(100);
+        assertThrows(IIOException.class, () -> read("a", param));
+
+        param.setMaxPixels(XPMImageReadParam.getDefaultMaxPixels());
+        param.setMaxColors(2);
+        assertThrows(IIOException.class, () -> read("a", param));
+
+        param.setMaxColors(XPMImageReadParam.getDefaultMaxColors());
+        param.setMaxBytes(100);
+        assertThrows(IIOException.class, () -> read("a", param));
+        assertEquals(4, numDecodes.get());
+    }
+
+    @Test
+    void readWithDestination() throws Exception {
+        ImageReadParam param = new ImageReadParam();
+        param.setDestination(new BufferedImage(22, 22, BufferedImage.TYPE_INT_ARGB));
+        read("a", param);
+        read("a", param);
+        assertEquals(2, numDecodes.get());
+        assertEquals(0, instance.getNumImages());
+    }
+
+    @Test
+    void readEvictsLeastRecentlyUsedImages() throws Exception {
+        BufferedImage imageA = read("a", null);
+        read("b", null);
+        read("a", null);
+        read("c", null);
+        assertEquals(2, instance.getNumImages());
+        assertEquals(IMAGE_SIZE * 2, instance.getSize());
+        assertSame(imageA, read("a", null));
+        read("b", null);
+        assertEquals(4, numDecodes.get());
+    }
+
+    @Test
+    void readWithImageLargerThanMaxSize() throws Exception {
+        instance = new XPMImageCache(IMAGE_SIZE - 1);
+        read("a", null);
+        read("a", null);
+        assertEquals(2, numDecodes.get());
+        assertEquals(0, instance.getNumImages());
+    }
+
+    private static void assertXPMImage(BufferedImage image) {
+        assertEquals(22, image.getWidth());
+        assertEquals(0xffff0000, image.getRGB(3, 15));
+    }
+
+}
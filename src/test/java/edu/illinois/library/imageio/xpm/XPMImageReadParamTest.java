@@ -14,10 +14,50 @@ class XPMImageReadParamTest {
         instance = new XPMImageReadParam();
     }
 
+    @Test
+    void limitsAreInitializedFromDefaults() {
+        final long defaultMaxPixels = XPMImageReadParam.getDefaultMaxPixels();
+        try {
+            XPMImageReadParam.setDefaultMaxPixels(1000);
+            assertEquals(1000, new XPMImageReadParam().getMaxPixels());
+            assertEquals(defaultMaxPixels, instance.getMaxPixels());
+        } finally {
+            XPMImageReadParam.setDefaultMaxPixels(defaultMaxPixels);
+        }
+        assertEquals(XPMImageReadParam.getDefaultMaxColors(), instance.getMaxColors());
+        assertEquals(XPMImageReadParam.getDefaultMaxBytes(), instance.getMaxBytes());
+    }
+
+    @Test
+    void setDefaultLimitsWithIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () ->
+                XPMImageReadParam.setDefaultMaxBytes(0));
+        assertThrows(IllegalArgumentException.class, () ->
+                XPMImageReadParam.setDefaultMaxColors(0));
+        assertThrows(IllegalArgumentException.class, () ->
+                XPMImageReadParam.setDefaultMaxPixels(-1));
+    }
+
     @Test
     void setDisplayTypeWithNullArgument() {
         assertThrows(NullPointerException.class, () ->
                 instance.setDisplayType(null));
     }
 
+    @Test
+    void setLimitsWithIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () ->
+                instance.setMaxBytes(0));
+        assertThrows(IllegalArgumentException.class, () ->
+                instance.setMaxColors(-1));
+        assertThrows(IllegalArgumentException.class, () ->
+                instance.setMaxPixels(0));
+    }
+
+    @Test
+    void setNumDecoderThreadsWithIllegalArgument() {
+        assertThrows(IllegalArgumentException.class, () ->
+                instance.setNumDecoderThreads(0));
+    }
+
 }
\ No newline at end of file
@@ -5,6 +5,11 @@ import org.junit.jupiter.api.Test;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Paths;
 import java.util.Iterator;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -17,6 +22,33 @@ class XPMImageReaderSpiTest {
         ImageIO.scanForPlugins();
     }
 
+    @Test
+    void canDecodeInputWithFile() {
+        XPMImageReaderSpi instance = new XPMImageReaderSpi();
+        assertTrue(instance.canDecodeInput(
+                new File("./src/test/resources/xpm.xpm")));
+        assertFalse(instance.canDecodeInput(new File("./pom.xml")));
+        assertFalse(instance.canDecodeInput(new File("./bogus.xpm")));
+    }
+
+    @Test
+    void canDecodeInputWithPath() {
+        XPMImageReaderSpi instance = new XPMImageReaderSpi();
+        assertTrue(instance.canDecodeInput(
+                Paths.get("./src/test/resources/xpm.xpm")));
+        assertFalse(instance.canDecodeInput(Paths.get("./pom.xml")));
+    }
+
+    @Test
+    void canDecodeInputWithShortStream() throws Exception {
+        XPMImageReaderSpi instance = new XPMImageReaderSpi();
+        try (ImageInputStream is = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(new byte[] { '/', '*' }))) {
+            assertFalse(instance.canDecodeInput(is));
+            assertEquals(0, is.getStreamPosition());
+        }
+    }
+
     @Test
     void serviceProviderRegistrationByFormatName() {
         Iterator<ImageReader> it = ImageIO.getImageReadersByFormatName("xpm");
@@ -37,9 +69,21 @@ class XPMImageReaderSpiTest {
 
     @Test
     void serviceProviderRegistrationByMIMEType() {
-        Iterator<ImageReader> it = ImageIO.getImageReadersByMIMEType("image/x‑xpixmap");
+        Iterator<ImageReader> it = ImageIO.getImageReadersByMIMEType("image/x-xpixmap");
         assertTrue(it.hasNext());
         assertTrue(it.next() instanceof XPMImageReader);
     }
 
+    @Test
+    void readerAndWriterMIMETypesMatch() {
+        XPMImageReaderSpi readerSpi = new XPMImageReaderSpi();
+        XPMImageWriterSpi writerSpi = new XPMImageWriterSpi();
+        assertArrayEquals(readerSpi.getMIMETypes(), writerSpi.getMIMETypes());
+        for (String mimeType : readerSpi.getMIMETypes()) {
+            assertTrue(mimeType.chars().allMatch(c -> c < 0x80));
+            assertTrue(ImageIO.getImageReadersByMIMEType(mimeType).hasNext());
+            assertTrue(ImageIO.getImageWritersByMIMEType(mimeType).hasNext());
+        }
+    }
+
 }
@@ -3,23 +3,41 @@ package edu.illinois.library.imageio.xpm;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assumptions.*;
@@ -47,230 +65,1643 @@ class XPMImageReaderTest {
         }
     }
 
+    /**
+     * Records the notifications that it receives as strings, and aborts
+     * the read upon the first progress notification above a threshold.
+     */
+    private static class RecordingListener
+            implements IIOReadProgressListener, IIOReadUpdateListener {
+        final List<String> events = new ArrayList<>();
+        final List<Rectangle> updates = new ArrayList<>();
+        final float abortPercentage;
+
+        RecordingListener(float abortPercentage) {
+            this.abortPercentage = abortPercentage;
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+            events.add("imageComplete");
+        }
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            events.add("imageProgress");
+            if (percentageDone > abortPercentage) {
+                source.abort();
+            }
+        }
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+            events.add("imageStarted");
+        }
+        @Override
+        public void readAborted(ImageReader source) {
+            events.add("readAborted");
+        }
+        @Override
+        public void sequenceComplete(ImageReader source) {}
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {}
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+            events.add("thumbnailComplete");
+        }
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+            events.add("thumbnailProgress");
+            if (percentageDone > abortPercentage) {
+                source.abort();
+            }
+        }
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+            events.add("thumbnailStarted");
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage,
+                                int minX, int minY, int width, int height,
+                                int periodX, int periodY, int[] bands) {
+            updates.add(new Rectangle(minX, minY, width, height));
+        }
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+            events.add("passComplete");
+        }
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage,
+                                int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY,
+                                int[] bands) {
+            events.add("passStarted");
+        }
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {}
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail,
+                                         int pass, int minPass, int maxPass,
+                                         int minX, int minY, int periodX, int periodY,
+                                         int[] bands) {}
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail,
+                                    int minX, int minY, int width, int height,
+                                    int periodX, int periodY, int[] bands) {}
+    }
+
+    /**
+     * Reads {@literal xv.xpm} with a {@link RecordingListener} registered
+     * for progress and updates.
+     */
+    private RecordingListener readWithListener(XPMImageReadParam param,
+                                               float abortPercentage) throws IOException {
+        XPMImageReader reader = newReaderForImage("xv.xpm");
+        try {
+            RecordingListener listener = new RecordingListener(abortPercentage);
+            reader.addIIOReadProgressListener(listener);
+            reader.addIIOReadUpdateListener(listener);
+            reader.read(0, param);
+            return listener;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private BufferedImage readImage(String filename) throws IOException {
+        XPMImageReader reader = newReaderForImage(filename);
+        try {
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void canReadRaster() {
+        assertTrue(new XPMImageReader(new XPMImageReaderSpi()).canReadRaster());
+    }
+
     @Test
     void getHeight() throws Exception {
         XPMImageReader reader = newReaderForImage("xpm.xpm");
         try {
-            assertEquals(22, reader.getHeight(0));
+            assertEquals(22, reader.getHeight(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getHeightWithValuesOutOfRange() {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            String xpm = "/* XPM */\n" +
+                    "static char *x[] = {\n" +
+                    "\"1 99999999999 1 1\",\n" +
+                    "\"a c red\",\n" +
+                    "};\n";
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII))));
+            assertThrows(IIOException.class, () -> reader.getHeight(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getImageMetadata() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            // This is tested more thoroughly in XPMImageMetadataTest.
+            assertNotNull(reader.getImageMetadata(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getImageTypes() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            Iterator<ImageTypeSpecifier> it = reader.getImageTypes(0);
+            assertEquals(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB),
+                    it.next());
+            assertEquals(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB),
+                    it.next());
+            assertEquals(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_GRAY),
+                    it.next());
+            assertEquals(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_BINARY),
+                    it.next());
+            // The palette contains 5 colors, which fit into 8 and 4 bits.
+            ImageTypeSpecifier type = it.next();
+            assertEquals(BufferedImage.TYPE_BYTE_INDEXED, type.getBufferedImageType());
+            assertEquals(8, type.getColorModel().getPixelSize());
+            type = it.next();
+            assertTrue(type.getColorModel() instanceof IndexColorModel);
+            assertEquals(4, type.getColorModel().getPixelSize());
+            assertFalse(it.hasNext());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getImageTypesWithLargePalette() throws Exception {
+        XPMImageReader reader = newReaderForImage("icons/RH2.tile.xpm");
+        try {
+            // The palette contains 577 colors, so no indexed types are
+            // offered.
+            Iterator<ImageTypeSpecifier> it = reader.getImageTypes(0);
+            for (int i = 0; i < 3; i++) {
+                it.next();
+            }
+            assertEquals(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_BINARY),
+                    it.next());
+            assertFalse(it.hasNext());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getRawImageType() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            ImageTypeSpecifier type = reader.getRawImageType(0);
+            assertEquals(BufferedImage.TYPE_BYTE_INDEXED, type.getBufferedImageType());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getRawImageTypeWithLargePalette() throws Exception {
+        XPMImageReader reader = newReaderForImage("icons/RH2.tile.xpm");
+        try {
+            assertEquals(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB),
+                    reader.getRawImageType(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getRowOffsets() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            long[] offsets = reader.getRowOffsets(0);
+            assertEquals(22, offsets.length);
+            byte[] bytes = Files.readAllBytes(
+                    Paths.get("./src/test/resources/xpm.xpm"));
+            for (int i = 0; i < offsets.length; i++) {
+                assertEquals('"', bytes[(int) offsets[i]]);
+                if (i > 0) {
+                    assertTrue(offsets[i] > offsets[i - 1]);
+                }
+            }
+            // The pixel data can still be read afterwards.
+            assertRGB(reader.read(0).getRGB(3, 15), 255, 0, 0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getRowOffsetsWithTruncatedImage() throws Exception {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            String xpm = "/* XPM */\n" +
+                    "static char *x[] = {\n" +
+                    "\"2 3 1 1\",\n" +
+                    "\". c #ff0000\",\n" +
+                    "\"..\",\n" +
+                    "\"..\"\n" +
+                    "};\n";
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII))));
+            assertArrayEquals(new long[] { 57, 63 }, reader.getRowOffsets(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getNumImages() {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            assertEquals(1, reader.getNumImages(true));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getNumImagesWithFalseArgument() {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            assertEquals(1, reader.getNumImages(false));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getNumThumbnails() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            assertEquals(1, reader.getNumThumbnails(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getThumbnailWidthAndHeight() throws Exception {
+        XPMImageReader reader = newReaderForImage("odd_dimensions.xpm");
+        try {
+            int width = reader.getWidth(0), height = reader.getHeight(0);
+            assertEquals((width + 1) / 2, reader.getThumbnailWidth(0, 0));
+            assertEquals((height + 1) / 2, reader.getThumbnailHeight(0, 0));
+            assertThrows(IndexOutOfBoundsException.class,
+                    () -> reader.getThumbnailWidth(0, reader.getNumThumbnails(0)));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getStreamMetadata() {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            assertNull(reader.getStreamMetadata());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void getWidth() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            assertEquals(22, reader.getWidth(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void probe() throws Exception {
+        try (ImageInputStream is = new FileImageInputStream(
+                new File("./src/test/resources/xpm.xpm"))) {
+            XPMImageInfo info = XPMImageReader.probe(is);
+            assertEquals(22, info.getWidth());
+            assertEquals(22, info.getHeight());
+            assertEquals(5, info.getNumColors());
+            assertEquals(2, info.getNumCharsPerPixel());
+            assertNull(info.getHotspot());
+            assertEquals(0, is.getStreamPosition());
+        }
+    }
+
+    @Test
+    void probeWithHotspot() throws Exception {
+        try (ImageInputStream is = new FileImageInputStream(
+                new File("./src/test/resources/hotspot.xpm"))) {
+            XPMImageInfo info = XPMImageReader.probe(is);
+            assertEquals(22, info.getWidth());
+            assertEquals(22, info.getHeight());
+            assertEquals(new Point(10, 8), info.getHotspot());
+        }
+    }
+
+    @Test
+    void probeWithExtensions() throws Exception {
+        String xpm = "/* XPM */\n" +
+                "static char *x[] = {\n" +
+                "\"3 2 1 1 XPMEXT\",\n" +
+                "\"a c red\",\n" +
+                "};\n";
+        try (ImageInputStream is = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII)))) {
+            XPMImageInfo info = XPMImageReader.probe(is);
+            assertEquals(3, info.getWidth());
+            assertEquals(2, info.getHeight());
+            assertNull(info.getHotspot());
+        }
+    }
+
+    @Test
+    void probeLeavesStreamPositionUnchanged() throws Exception {
+        byte[] xpm = Files.readAllBytes(Paths.get("./src/test/resources/xpm.xpm"));
+        byte[] bytes = new byte[xpm.length + 3];
+        System.arraycopy(xpm, 0, bytes, 3, xpm.length);
+        try (ImageInputStream is = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(bytes))) {
+            is.seek(3);
+            assertEquals(22, XPMImageReader.probe(is).getWidth());
+            assertEquals(3, is.getStreamPosition());
+            // The stream is still usable by a reader.
+            XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+            try {
+                reader.setInput(is);
+                assertEquals(22, reader.read(0).getHeight());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Test
+    void probeWithNonXPMInput() throws Exception {
+        byte[] bytes = "GIF89a".getBytes(StandardCharsets.US_ASCII);
+        try (ImageInputStream is = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(bytes))) {
+            assertNull(XPMImageReader.probe(is));
+            assertEquals(0, is.getStreamPosition());
+        }
+    }
+
+    @Test
+    void probeWithMissingValues() throws Exception {
+        String xpm = "/* XPM */\n" +
+                "static char *x[] = {\n" +
+                "};\n";
+        try (ImageInputStream is = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII)))) {
+            assertThrows(IIOException.class, () -> XPMImageReader.probe(is));
+            assertEquals(0, is.getStreamPosition());
+        }
+    }
+
+    /**
+     * Asserts that the pixels of a raster read with {@link
+     * XPMImageReader#readRaster}, interpreted by the {@link
+     * XPMImageReader#getRawImageType(int) raw image type}, match those of an
+     * image read with the same parameters.
+     */
+    private void assertReadRasterMatchesRead(String filename,
+                                             ImageReadParam param) throws Exception {
+        XPMImageReader reader = newReaderForImage(filename);
+        try {
+            BufferedImage expected = reader.read(0, param);
+            Raster raster = reader.readRaster(0, param);
+            assertEquals(expected.getWidth(), raster.getWidth());
+            assertEquals(expected.getHeight(), raster.getHeight());
+            ColorModel colorModel = reader.getRawImageType(0).getColorModel();
+            BufferedImage actual = new BufferedImage(colorModel,
+                    (WritableRaster) raster.createTranslatedChild(0, 0),
+                    false, null);
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readRaster() throws Exception {
+        assertReadRasterMatchesRead("xpm.xpm", null);
+    }
+
+    @Test
+    void readRasterWithLargePalette() throws Exception {
+        XPMImageReader reader = newReaderForImage("icons/RH2.tile.xpm");
+        try {
+            Raster raster = reader.readRaster(0, null);
+            assertTrue(raster.getDataBuffer() instanceof DataBufferInt);
+        } finally {
+            reader.dispose();
+        }
+        assertReadRasterMatchesRead("icons/RH2.tile.xpm", null);
+    }
+
+    @Test
+    void readRasterWithSourceRegionAndSubsampling() throws Exception {
+        ImageReadParam param = new ImageReadParam();
+        param.setSourceRegion(new Rectangle(3, 2, 15, 17));
+        param.setSourceSubsampling(2, 3, 0, 0);
+        assertReadRasterMatchesRead("xpm.xpm", param);
+    }
+
+    @Test
+    void readRasterWithDestinationOffset() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            Raster expected = reader.readRaster(0, null);
+            ImageReadParam param = new ImageReadParam();
+            param.setDestinationOffset(new Point(5, 7));
+            Raster actual = reader.readRaster(0, param);
+            // The offset is logical, so the whole image is still present.
+            assertEquals(5, actual.getMinX());
+            assertEquals(7, actual.getMinY());
+            assertEquals(22, actual.getWidth());
+            assertEquals(22, actual.getHeight());
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    assertEquals(expected.getSample(x, y, 0),
+                            actual.getSample(x + 5, y + 7, 0));
+                }
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readRasterWithDisplayType() throws Exception {
+        XPMImageReadParam param = new XPMImageReadParam();
+        param.setDisplayType(DisplayType.GRAYSCALE);
+        // Indices are the same regardless of the display type.
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            Raster expected = reader.readRaster(0, null);
+            Raster actual = reader.readRaster(0, param);
+            assertArrayEquals(expected.getPixels(0, 0, 22, 22, (int[]) null),
+                    actual.getPixels(0, 0, 22, 22, (int[]) null));
+        } finally {
+            reader.dispose();
+        }
+        assertReadRasterMatchesRead("icons/RH2.tile.xpm", param);
+    }
+
+    @Test
+    void readRasterWith9CharactersPerPixel() throws Exception {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            String xpm = "/* XPM */\n" +
+                    "static char *x[] = {\n" +
+                    "\"2 2 2 9\",\n" +
+                    "\"aaaaaaaaa c #ff0000\",\n" +
+                    "\"bbbbbbbbb c #0000ff\",\n" +
+                    "\"aaaaaaaaabbbbbbbbb\",\n" +
+                    "\"bbbbbbbbbaaaaaaaaa\"\n" +
+                    "};\n";
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII))));
+            Raster raster = reader.readRaster(0, null);
+            assertEquals(0xffff0000, raster.getDataBuffer().getElem(0));
+            assertEquals(0xff0000ff, raster.getDataBuffer().getElem(1));
+            assertEquals(0xff0000ff, raster.getDataBuffer().getElem(2));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Asserts that the rows delivered by {@link
+     * XPMImageReader#readScanlines} match the pixels of a raster read with
+     * the same parameters, and that they are delivered in order in the same
+     * array.
+     */
+    private void assertReadScanlinesMatchesReadRaster(String filename,
+                                                      ImageReadParam param) throws Exception {
+        XPMImageReader reader = newReaderForImage(filename);
+        try {
+            Raster raster = reader.readRaster(0, param).createTranslatedChild(0, 0);
+            BufferedImage expected = new BufferedImage(
+                    reader.getRawImageType(0).getColorModel(),
+                    (WritableRaster) raster, false, null);
+            List<int[]> arrays = new ArrayList<>();
+            reader.readScanlines(0, param, (row, y) -> {
+                assertEquals(arrays.size(), y);
+                assertEquals(expected.getWidth(), row.length);
+                for (int x = 0; x < row.length; x++) {
+                    assertEquals(expected.getRGB(x, y), row[x], x + "," + y);
+                }
+                arrays.add(row);
+            });
+            assertEquals(expected.getHeight(), arrays.size());
+            assertTrue(arrays.stream().allMatch(a -> a == arrays.get(0)));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readScanlines() throws Exception {
+        assertReadScanlinesMatchesReadRaster("xpm.xpm", null);
+        assertReadScanlinesMatchesReadRaster("icons/RH2.tile.xpm", null);
+    }
+
+    @Test
+    void readScanlinesWithSourceRegionAndSubsampling() throws Exception {
+        ImageReadParam param = new ImageReadParam();
+        param.setSourceRegion(new Rectangle(4, 2, 15, 17));
+        param.setSourceSubsampling(2, 3, 0, 0);
+        assertReadScanlinesMatchesReadRaster("xpm.xpm", param);
+    }
+
+    @Test
+    void readScanlinesWithAbort() throws Exception {
+        XPMImageReader reader = newReaderForImage("xv.xpm");
+        try {
+            List<Integer> rows = new ArrayList<>();
+            reader.readScanlines(0, null, (row, y) -> {
+                rows.add(y);
+                reader.abort();
+            });
+            assertTrue(rows.size() > 0);
+            assertTrue(rows.size() < reader.getHeight(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readScanlinesWithDisplayType() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setDisplayType(DisplayType.MONOCHROME);
+            BufferedImage expected = reader.read(0, param);
+            reader.readScanlines(0, param, (row, y) -> {
+                for (int x = 0; x < row.length; x++) {
+                    assertEquals(expected.getRGB(x, y), row[x]);
+                }
+            });
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readScanlinesPropagatesConsumerException() {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            IOException e = assertThrows(IOException.class,
+                    () -> reader.readScanlines(0, null, (row, y) -> {
+                        throw new IOException("y=" + y);
+                    }));
+            assertEquals("y=0", e.getMessage());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readScanlinesWith9CharactersPerPixel() {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            String xpm = "/* XPM */\n" +
+                    "static char *x[] = {\n" +
+                    "\"1 1 1 9\",\n" +
+                    "\"aaaaaaaaa c #ff0000\",\n" +
+                    "\"aaaaaaaaa\"\n" +
+                    "};\n";
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII))));
+            assertThrows(IIOException.class,
+                    () -> reader.readScanlines(0, null, (row, y) -> {}));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void read() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            BufferedImage image = reader.read(0);
+            assertEquals(BufferedImage.TYPE_INT_ARGB, image.getType());
+            assertEquals(22, image.getWidth());
+            assertEquals(22, image.getHeight());
+            assertEmpty(image.getRGB(5, 5));
+            assertRGB(image.getRGB(3, 15), 255, 0, 0);
+            assertRGB(image.getRGB(13, 3), 0, 0, 0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWithFileInput() throws Exception {
+        BufferedImage expected = readImage("xpm.xpm");
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            reader.setInput(new File("./src/test/resources/xpm.xpm"));
+            BufferedImage actual = reader.read(0);
+            assertArrayEquals(
+                    expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0, expected.getWidth()),
+                    actual.getRGB(0, 0, actual.getWidth(), actual.getHeight(), null, 0, actual.getWidth()));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWithPathInput() throws Exception {
+        BufferedImage expected = readImage("2_chars_per_pixel.xpm");
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            reader.setInput(Paths.get("./src/test/resources/2_chars_per_pixel.xpm"));
+            BufferedImage actual = reader.read(0);
+            assertArrayEquals(
+                    expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0, expected.getWidth()),
+                    actual.getRGB(0, 0, actual.getWidth(), actual.getHeight(), null, 0, actual.getWidth()));
+            // A second input replaces the first, whose stream is closed.
+            reader.setInput(Paths.get("./src/test/resources/xpm.xpm"));
+            assertEquals(22, reader.getWidth(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readAll() throws Exception {
+        BufferedImage[] expected = new BufferedImage[2];
+        XPMImageReader reader = newReaderForImage("xv.xpm");
+        try {
+            expected[0] = reader.read(0);
+            expected[1] = reader.readThumbnail(0, 0);
+        } finally {
+            reader.dispose();
+        }
+        reader = newReaderForImage("xv.xpm");
+        try {
+            IIOImage image = reader.readAll(0, null);
+            BufferedImage actual = (BufferedImage) image.getRenderedImage();
+            assertEquals(1, image.getNumThumbnails());
+            assertEquals(24, image.getThumbnail(0).getWidth());
+            for (int y = 0; y < actual.getHeight(); y++) {
+                for (int x = 0; x < actual.getWidth(); x++) {
+                    assertEquals(expected[0].getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+            for (int y = 0; y < expected[1].getHeight(); y++) {
+                for (int x = 0; x < expected[1].getWidth(); x++) {
+                    assertEquals(expected[1].getRGB(x, y),
+                            image.getThumbnail(0).getRGB(x, y));
+                }
+            }
+            // The thumbnails built during readAll() are retained.
+            assertSame(image.getThumbnail(0), reader.readThumbnail(0, 0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readAllWithAbort() throws Exception {
+        final byte[] xpm = Files.readAllBytes(
+                Paths.get("./src/test/resources/xv.xpm"));
+        final ImageReadParam regionParam = new ImageReadParam();
+        regionParam.setSourceRegion(new Rectangle(0, 0, 40, 40));
+        for (ImageReadParam param : new ImageReadParam[] { null, regionParam }) {
+            final long[] numBytesRead = new long[1];
+            XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+            try {
+                reader.setInput(new MemoryCacheImageInputStream(
+                        new ByteArrayInputStream(xpm)) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        final int count = super.read(b, off, len);
+                        numBytesRead[0] += Math.max(0, count);
+                        return count;
+                    }
+                });
+                RecordingListener listener = new RecordingListener(0);
+                reader.addIIOReadProgressListener(listener);
+                IIOImage image = reader.readAll(0, param);
+                assertNull(image.getThumbnails());
+                assertEquals(Arrays.asList(
+                        "imageStarted", "imageProgress", "readAborted"),
+                        listener.events);
+                // The pixel data is not read again to build the thumbnails.
+                assertTrue(numBytesRead[0] <= xpm.length);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Test
+    void readAllWithSourceRegion() throws Exception {
+        XPMImageReader reader = newReaderForImage("xv.xpm");
+        try {
+            ImageReadParam param = new ImageReadParam();
+            param.setSourceRegion(new Rectangle(4, 4, 10, 10));
+            IIOImage image = reader.readAll(0, param);
+            assertEquals(10, image.getRenderedImage().getWidth());
+            // The thumbnails are always of the whole image.
+            assertEquals(24, image.getThumbnail(0).getWidth());
+            assertEquals(24, image.getThumbnail(0).getHeight());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readThumbnail() throws Exception {
+        XPMImageReader reader = newReaderForImage("odd_dimensions.xpm");
+        try {
+            BufferedImage image = reader.read(0);
+            BufferedImage thumbnail = reader.readThumbnail(0, 0);
+            assertEquals((image.getWidth() + 1) / 2, thumbnail.getWidth());
+            assertEquals((image.getHeight() + 1) / 2, thumbnail.getHeight());
+            // Each pixel is the average of the corresponding 2x2 block,
+            // which is opaque or transparent throughout in this image.
+            for (int ty = 0; ty < thumbnail.getHeight(); ty++) {
+                for (int tx = 0; tx < thumbnail.getWidth(); tx++) {
+                    int n = 0, r = 0, g = 0, b = 0;
+                    for (int y = ty * 2; y < Math.min(ty * 2 + 2, image.getHeight()); y++) {
+                        for (int x = tx * 2; x < Math.min(tx * 2 + 2, image.getWidth()); x++) {
+                            int argb = image.getRGB(x, y);
+                            if (argb >>> 24 == 255) {
+                                n++;
+                                r += (argb >> 16) & 0xff;
+                                g += (argb >> 8) & 0xff;
+                                b += argb & 0xff;
+                            }
+                        }
+                    }
+                    int actual = thumbnail.getRGB(tx, ty);
+                    if (n == 0) {
+                        assertEquals(0, actual);
+                    } else {
+                        assertEquals((r + n / 2) / n, (actual >> 16) & 0xff);
+                        assertEquals((g + n / 2) / n, (actual >> 8) & 0xff);
+                        assertEquals((b + n / 2) / n, actual & 0xff);
+                    }
+                }
+            }
+            assertSame(thumbnail, reader.readThumbnail(0, 0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readThumbnailWith9CharactersPerPixel() throws Exception {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            String xpm = "/* XPM */\n" +
+                    "static char *x[] = {\n" +
+                    "\"2 2 2 9\",\n" +
+                    "\"aaaaaaaaa c #ff0000\",\n" +
+                    "\"bbbbbbbbb c #0000ff\",\n" +
+                    "\"aaaaaaaaabbbbbbbbb\",\n" +
+                    "\"bbbbbbbbbaaaaaaaaa\"\n" +
+                    "};\n";
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII))));
+            BufferedImage thumbnail = reader.readThumbnail(0, 0);
+            assertEquals(1, thumbnail.getWidth());
+            assertEquals(0xff800080, thumbnail.getRGB(0, 0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readThumbnailAndReadAllWithOversizedHeader() {
+        final byte[] xpm = ("/* XPM */\n" +
+                "static char *x[] = {\n" +
+                "\"200000 200000 1 1\",\n" +
+                "\"a c red\",\n" +
+                "};\n").getBytes(StandardCharsets.US_ASCII);
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm)));
+            assertThrows(IIOException.class, () -> reader.readThumbnail(0, 0));
+
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm)));
+            assertThrows(IIOException.class, () -> reader.readAll(0, null));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readThumbnailWithProgressListener() throws Exception {
+        final byte[][] inputs = {
+                Files.readAllBytes(Paths.get("./src/test/resources/xv.xpm")),
+                // Only readable by the legacy decoder
+                newPatternXPM(37, 41, 300, 9) };
+        for (byte[] xpm : inputs) {
+            XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+            try {
+                reader.setInput(new MemoryCacheImageInputStream(
+                        new ByteArrayInputStream(xpm)));
+                RecordingListener listener = new RecordingListener(100);
+                reader.addIIOReadProgressListener(listener);
+                reader.addIIOReadUpdateListener(listener);
+                reader.readThumbnail(0, 0);
+                assertEquals(Arrays.asList("thumbnailStarted",
+                        "thumbnailProgress", "thumbnailComplete"),
+                        listener.events);
+                assertTrue(listener.updates.isEmpty());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Test
+    void readThumbnailWithAbort() throws Exception {
+        XPMImageReader reader = newReaderForImage("xv.xpm");
+        try {
+            RecordingListener listener = new RecordingListener(0);
+            reader.addIIOReadProgressListener(listener);
+            reader.readThumbnail(0, 0);
+            assertEquals(Arrays.asList("thumbnailStarted",
+                    "thumbnailProgress", "readAborted"), listener.events);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readThumbnailWithInvalidIndex() {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            assertThrows(IndexOutOfBoundsException.class,
+                    () -> reader.readThumbnail(0, 1));
+            assertThrows(IndexOutOfBoundsException.class,
+                    () -> reader.readThumbnail(0, -1));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWith16BitsPerSample() throws Exception {
+        XPMImageReader reader = newReaderForImage("16bit.xpm");
+        try {
+            BufferedImage image = reader.read(0);
+            assertEquals(48, image.getWidth());
+            assertEquals(48, image.getHeight());
+            assertEmpty(image.getRGB(1, 1));
+            assertRGB(image.getRGB(10, 10), 223, 146, 57);
+            assertRGB(image.getRGB(20, 20), 49, 49, 40);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWith1CharacterPerPixel() throws Exception {
+        XPMImageReader reader = newReaderForImage("1_char_per_pixel.xpm");
+        try {
+            BufferedImage image = reader.read(0);
+            assertEquals(22, image.getWidth());
+            assertEquals(22, image.getHeight());
+            assertEmpty(image.getRGB(5, 5));
+            assertRGB(image.getRGB(3, 15), 255, 0, 0);
+            assertRGB(image.getRGB(13, 3), 0, 0, 0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWith2CharactersPerPixel() throws Exception {
+        XPMImageReader reader = newReaderForImage("2_chars_per_pixel.xpm");
+        try {
+            BufferedImage image = reader.read(0);
+            assertEquals(22, image.getWidth());
+            assertEquals(22, image.getHeight());
+            assertEmpty(image.getRGB(5, 5));
+            assertRGB(image.getRGB(3, 15), 255, 0, 0);
+            assertRGB(image.getRGB(13, 3), 0, 0, 0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWithDestinationOffset() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestinationOffset(new Point(10, 10));
+            BufferedImage image = reader.read(0, param);
+            assertEquals(32, image.getWidth());
+            assertEquals(32, image.getHeight());
+            assertRGB(image.getRGB(5, 5), 0, 0, 0);
+            assertRGB(image.getRGB(18, 15), 0, 255, 0);
+            assertRGB(image.getRGB(18, 21), 255, 0, 0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWithHexColors() throws Exception {
+        XPMImageReader reader = newReaderForImage("hex_colors.xpm");
+        try {
+            BufferedImage image = reader.read(0);
+            assertEquals(32, image.getWidth());
+            assertEquals(28, image.getHeight());
+            assertRGB(image.getRGB(3, 3), 112, 143, 103);
+            assertRGB(image.getRGB(25, 25), 164, 136, 103);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Hotspots are irrelevant to the reader; this just tests whether it can
+     * parse a file that contains them.
+     */
+    @Test
+    void readWithHotspot() throws Exception {
+        XPMImageReader reader = newReaderForImage("hotspot.xpm");
+        try {
+            BufferedImage image = reader.read(0);
+            assertEquals(22, image.getWidth());
+            assertEquals(22, image.getHeight());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWithAbort() throws Exception {
+        XPMImageReader reader = newReaderForImage("xv.xpm");
+        try {
+            RecordingListener listener = new RecordingListener(0);
+            reader.addIIOReadProgressListener(listener);
+            BufferedImage image = reader.read(0);
+            assertEquals("readAborted",
+                    listener.events.get(listener.events.size() - 1));
+            assertFalse(listener.events.contains("imageComplete"));
+            // Only the rows before the first check have been decoded.
+            int lastRow = image.getHeight() - 1;
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(0, image.getRGB(x, lastRow));
+            }
+            // A subsequent read is not aborted.
+            reader.removeAllIIOReadProgressListeners();
+            BufferedImage expected = reader.read(0);
+            assertNotEquals(0, expected.getRGB(10, lastRow));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWithAbortAndLegacyDecoder() throws Exception {
+        XPMImageReadParam param = new XPMImageReadParam();
+        param.setLegacyDecoderEnabled(true);
+        RecordingListener listener = readWithListener(param, 0);
+        assertEquals(Arrays.asList("imageStarted", "passStarted",
+                "imageProgress", "passComplete", "readAborted"),
+                listener.events);
+    }
+
+    @Test
+    void readWithProgressAndUpdateListeners() throws Exception {
+        for (int numThreads : new int[] { 1, 3 }) {
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setNumDecoderThreads(numThreads);
+            param.setSourceRegion(new Rectangle(3, 5, 40, 40));
+            RecordingListener listener = readWithListener(param, 100);
+            List<String> events = listener.events;
+            assertEquals("imageStarted", events.get(0));
+            assertEquals("passStarted", events.get(1));
+            assertTrue(events.subList(2, events.size() - 2).stream()
+                    .allMatch("imageProgress"::equals));
+            assertTrue(events.size() > 4);
+            assertEquals("passComplete", events.get(events.size() - 2));
+            assertEquals("imageComplete", events.get(events.size() - 1));
+
+            // The updates cover every destination row once, in order.
+            int nextY = 0;
+            for (Rectangle update : listener.updates) {
+                assertEquals(0, update.x);
+                assertEquals(40, update.width);
+                assertEquals(nextY, update.y);
+                nextY += update.height;
+            }
+            assertEquals(40, nextY);
+        }
+    }
+
+    @Test
+    void readWithMaxBytes() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setMaxBytes(1000);
+            assertThrows(IIOException.class, () -> reader.read(0, param));
+            // A limit of the exact length of the input is not exceeded.
+            param.setMaxBytes(Files.size(Paths.get("./src/test/resources/xpm.xpm")));
+            reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWithOverlongHeaderLine() {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            StringBuilder xpm = new StringBuilder("/* XPM */\n" +
+                    "static char *x[] = {\n" +
+                    "\"1 1 1 1\",\n" +
+                    "\"a c red");
+            for (int i = 0; i <= ImageInputStreamScanner.DEFAULT_MAX_LINE_LENGTH; i++) {
+                xpm.append(' ');
+            }
+            reader.setInput(new MemoryCacheImageInputStream(new ByteArrayInputStream(
+                    xpm.toString().getBytes(StandardCharsets.US_ASCII))));
+            assertThrows(IIOException.class, () -> reader.read(0));
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void getImageMetadata() throws Exception {
-        XPMImageReader reader = newReaderForImage("xpm.xpm");
+    void readWithOverlongPixelRow() {
+        StringBuilder xpm = new StringBuilder("/* XPM */\n" +
+                "static char *x[] = {\n" +
+                "\"2 1 1 1\",\n" +
+                "\"a c red\",\n" +
+                "\"");
+        for (int i = 0; i <= 2 + ImageInputStreamScanner.DEFAULT_MAX_LINE_LENGTH; i++) {
+            xpm.append('a');
+        }
+        final byte[] bytes = xpm.toString().getBytes(StandardCharsets.US_ASCII);
+        for (boolean isLegacy : new boolean[] { false, true }) {
+            XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+            try {
+                reader.setInput(new MemoryCacheImageInputStream(
+                        new ByteArrayInputStream(bytes)));
+                XPMImageReadParam param = new XPMImageReadParam();
+                param.setLegacyDecoderEnabled(isLegacy);
+                assertThrows(IIOException.class, () -> reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Test
+    void readWithMaxColors() {
+        XPMImageReader reader = newReaderForImage("xv.xpm");
         try {
-            // This is tested more thoroughly in XPMImageMetadataTest.
-            assertNotNull(reader.getImageMetadata(0));
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setMaxColors(253);
+            IIOException e = assertThrows(IIOException.class,
+                    () -> reader.read(0, param));
+            assertEquals("Number of colors (254) exceeds the limit of 253",
+                    e.getMessage());
+            assertThrows(IIOException.class, () -> reader.readRaster(0, param));
+            assertThrows(IIOException.class,
+                    () -> reader.readScanlines(0, param, (row, y) -> {}));
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void getImageTypes() {
+    void readWithMaxPixels() throws Exception {
         XPMImageReader reader = newReaderForImage("xpm.xpm");
         try {
-            Iterator<ImageTypeSpecifier> it = reader.getImageTypes(0);
-            assertEquals(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB),
-                    it.next());
-            assertEquals(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB),
-                    it.next());
-            assertEquals(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_GRAY),
-                    it.next());
-            assertEquals(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_BINARY),
-                    it.next());
-            assertFalse(it.hasNext());
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setMaxPixels(22 * 22 - 1);
+            assertThrows(IIOException.class, () -> reader.read(0, param));
+            assertThrows(IIOException.class, () -> reader.readRaster(0, param));
+            // Scanline reading allocates only a row.
+            param.setMaxPixels(22);
+            reader.readScanlines(0, param, (row, y) -> {});
+            param.setMaxPixels(21);
+            assertThrows(IIOException.class,
+                    () -> reader.readScanlines(0, param, (row, y) -> {}));
+            // The limit applies to the destination, not the source.
+            param.setMaxPixels(11 * 11);
+            param.setSourceSubsampling(2, 2, 0, 0);
+            assertEquals(11, reader.read(0, param).getWidth());
+            // A caller-supplied destination is not limited.
+            param.setSourceSubsampling(1, 1, 0, 0);
+            param.setDestination(new BufferedImage(22, 22, BufferedImage.TYPE_INT_ARGB));
+            reader.read(0, param);
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void getNumImages() {
+    void readWithDefaultLimits() {
+        // 10000x10000 pixels, which would need 400 MB as an ARGB image.
+        final byte[] largeXPM = ("/* XPM */\n" +
+                "static char *x[] = {\n" +
+                "\"10000 10000 1 1\",\n" +
+                "\"a c red\",\n" +
+                "};\n").getBytes(StandardCharsets.US_ASCII);
+        IIOException e = assertThrows(IIOException.class,
+                () -> read(largeXPM, null));
+        assertEquals("Number of pixels (100000000) exceeds the limit of " +
+                (1 << 26), e.getMessage());
+
+        final byte[] manyColorsXPM = ("/* XPM */\n" +
+                "static char *x[] = {\n" +
+                "\"1 1 70000 3\",\n" +
+                "\"aaa c red\",\n" +
+                "};\n").getBytes(StandardCharsets.US_ASCII);
+        e = assertThrows(IIOException.class, () -> read(manyColorsXPM, null));
+        assertEquals("Number of colors (70000) exceeds the limit of " +
+                (1 << 16), e.getMessage());
+    }
+
+    @Test
+    void readWithDefaultMaxPixels() {
+        final long defaultMaxPixels = XPMImageReadParam.getDefaultMaxPixels();
         XPMImageReader reader = newReaderForImage("xpm.xpm");
         try {
-            assertEquals(1, reader.getNumImages(true));
+            XPMImageReadParam.setDefaultMaxPixels(100);
+            assertThrows(IIOException.class, () -> reader.read(0));
+            assertThrows(IIOException.class,
+                    () -> reader.read(0, new ImageReadParam()));
         } finally {
+            XPMImageReadParam.setDefaultMaxPixels(defaultMaxPixels);
             reader.dispose();
         }
     }
 
     @Test
-    void getNumImagesWithFalseArgument() {
-        XPMImageReader reader = newReaderForImage("xpm.xpm");
+    void readWithMultipleDecoderThreads() throws Exception {
+        final int[] types = { BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY };
+        for (int type : types) {
+            BufferedImage[] images = new BufferedImage[2];
+            for (int i = 0; i < images.length; i++) {
+                XPMImageReader reader = newReaderForImage("xv.xpm");
+                try {
+                    XPMImageReadParam param = new XPMImageReadParam();
+                    param.setDestinationType(
+                            ImageTypeSpecifier.createFromBufferedImageType(type));
+                    param.setSourceRegion(new Rectangle(3, 5, 200, 100));
+                    param.setNumDecoderThreads(i * 3 + 1);
+                    images[i] = reader.read(0, param);
+                } finally {
+                    reader.dispose();
+                }
+            }
+            assertArrayEquals(
+                    images[0].getRaster().getPixels(0, 0, images[0].getWidth(),
+                            images[0].getHeight(), (int[]) null),
+                    images[1].getRaster().getPixels(0, 0, images[1].getWidth(),
+                            images[1].getHeight(), (int[]) null));
+        }
+    }
+
+    @Test
+    void readWithDecoderExecutor() throws Exception {
+        final BufferedImage expected = readImage("xv.xpm");
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        XPMImageReader reader = newReaderForImage("xv.xpm");
         try {
-            assertEquals(1, reader.getNumImages(false));
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setNumDecoderThreads(2);
+            param.setDecoderExecutor(executor);
+            BufferedImage image = reader.read(0, param);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    assertEquals(expected.getRGB(x, y), image.getRGB(x, y));
+                }
+            }
+            // The executor is the caller's, so it must not be shut down.
+            assertFalse(executor.isShutdown());
         } finally {
             reader.dispose();
+            executor.shutdown();
         }
     }
 
     @Test
-    void getNumThumbnails() {
-        XPMImageReader reader = newReaderForImage("xpm.xpm");
+    void readWithOddDimensions() throws Exception {
+        XPMImageReader reader = newReaderForImage("odd_dimensions.xpm");
         try {
-            assertEquals(0, reader.getNumThumbnails(0));
+            BufferedImage image = reader.read(0);
+            assertEquals(21, image.getWidth());
+            assertEquals(18, image.getHeight());
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void getStreamMetadata() {
+    void readWithSourceRegion() throws Exception {
         XPMImageReader reader = newReaderForImage("xpm.xpm");
         try {
-            assertNull(reader.getStreamMetadata());
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(11, 11, 11, 11));
+            BufferedImage image = reader.read(0, param);
+            assertEquals(11, image.getWidth());
+            assertEquals(11, image.getHeight());
+            assertRGB(image.getRGB(0, 0), 0, 0, 0);
+            assertRGB(image.getRGB(1, 0), 255, 0, 0);
+            assertRGB(image.getRGB(5, 4), 0, 255, 0);
+            assertRGB(image.getRGB(10, 10), 0, 0, 0);
+            assertRGB(image.getRGB(9, 10), 255, 0, 0);
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void getWidth() throws Exception {
+    void readWithSourceRegionsMatchingFullImage() throws Exception {
         XPMImageReader reader = newReaderForImage("xpm.xpm");
         try {
-            assertEquals(22, reader.getWidth(0));
+            // The same reader is used throughout, exercising seeking back to
+            // the rows of each region.
+            BufferedImage fullImage = reader.read(0);
+            Rectangle[] regions = {
+                    new Rectangle(0, 0, 22, 1),
+                    new Rectangle(0, 21, 22, 1),
+                    new Rectangle(7, 3, 5, 9),
+                    new Rectangle(15, 18, 20, 20),
+                    new Rectangle(2, 2, 4, 4) };
+            for (Rectangle region : regions) {
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                BufferedImage image = reader.read(0, param);
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        assertEquals(fullImage.getRGB(region.x + x, region.y + y),
+                                image.getRGB(x, y), region + " " + x + "," + y);
+                    }
+                }
+            }
+            assertEquals(fullImage.getRGB(5, 5), reader.read(0).getRGB(5, 5));
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void read() throws Exception {
+    void readWithSourceRegionAndNegativeDestinationOffset() throws Exception {
+        BufferedImage fullImage = readImage("xpm.xpm");
         XPMImageReader reader = newReaderForImage("xpm.xpm");
         try {
-            BufferedImage image = reader.read(0);
-            assertEquals(BufferedImage.TYPE_INT_ARGB, image.getType());
-            assertEquals(22, image.getWidth());
-            assertEquals(22, image.getHeight());
-            assertEmpty(image.getRGB(5, 5));
-            assertRGB(image.getRGB(3, 15), 255, 0, 0);
-            assertRGB(image.getRGB(13, 3), 0, 0, 0);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(4, 4, 20, 20));
+            param.setDestinationOffset(new Point(-3, -5));
+            BufferedImage image = reader.read(0, param);
+            assertEquals(15, image.getWidth());
+            assertEquals(13, image.getHeight());
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    assertEquals(fullImage.getRGB(x + 7, y + 9),
+                            image.getRGB(x, y), x + "," + y);
+                }
+            }
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void readWith16BitsPerSample() throws Exception {
-        XPMImageReader reader = newReaderForImage("16bit.xpm");
-        try {
-            BufferedImage image = reader.read(0);
-            assertEquals(48, image.getWidth());
-            assertEquals(48, image.getHeight());
-            assertEmpty(image.getRGB(1, 1));
-            assertRGB(image.getRGB(10, 10), 223, 146, 57);
-            assertRGB(image.getRGB(20, 20), 49, 49, 40);
-        } finally {
-            reader.dispose();
+    void readWithLegacyDecoderEnabledAndDisplayType() throws Exception {
+        // The legacy decoder mis-counts comment rows, so none are present.
+        final String xpm = "/* XPM */\n" +
+                "static char *x[] = {\n" +
+                "\"3 2 3 1\",\n" +
+                "\"a c #ff0000 g #808080 m white\",\n" +
+                "\"b c #00ff00 g4 #404040\",\n" +
+                "\"c m black\",\n" +
+                "\"abc\",\n" +
+                "\"cba\"\n" +
+                "};\n";
+        for (DisplayType displayType : DisplayType.values()) {
+            BufferedImage[] images = new BufferedImage[2];
+            for (int i = 0; i < images.length; i++) {
+                XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+                try {
+                    reader.setInput(new MemoryCacheImageInputStream(
+                            new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII))));
+                    XPMImageReadParam param = new XPMImageReadParam();
+                    param.setDisplayType(displayType);
+                    param.setLegacyDecoderEnabled(i == 1);
+                    images[i] = reader.read(0, param);
+                } finally {
+                    reader.dispose();
+                }
+            }
+            for (int y = 0; y < images[0].getHeight(); y++) {
+                for (int x = 0; x < images[0].getWidth(); x++) {
+                    assertEquals(images[0].getRGB(x, y), images[1].getRGB(x, y),
+                            displayType + " " + x + "," + y);
+                }
+            }
         }
     }
 
     @Test
-    void readWith1CharacterPerPixel() throws Exception {
-        XPMImageReader reader = newReaderForImage("1_char_per_pixel.xpm");
+    void readWithHeaderOnSingleLines() throws Exception {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
         try {
+            String xpm = "/* XPM */\r\n" +
+                    "static char *x[] = {\t\"2 1 2 1\",\r\n" +
+                    "/* colors */\r\n" +
+                    "  \"a\tc red\", \r\n" +
+                    "\"b c\t#00f\",\r\n" +
+                    "\"ab\"};\r\n";
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII))));
             BufferedImage image = reader.read(0);
-            assertEquals(22, image.getWidth());
-            assertEquals(22, image.getHeight());
-            assertEmpty(image.getRGB(5, 5));
-            assertRGB(image.getRGB(3, 15), 255, 0, 0);
-            assertRGB(image.getRGB(13, 3), 0, 0, 0);
+            assertEquals(2, image.getWidth());
+            assertEquals(1, image.getHeight());
+            assertRGB(image.getRGB(0, 0), 255, 0, 0);
+            assertRGB(image.getRGB(1, 0), 0, 0, 255);
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void readWith2CharactersPerPixel() throws Exception {
-        XPMImageReader reader = newReaderForImage("2_chars_per_pixel.xpm");
+    void readWith9CharactersPerPixel() throws Exception {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
         try {
-            BufferedImage image = reader.read(0);
-            assertEquals(22, image.getWidth());
-            assertEquals(22, image.getHeight());
-            assertEmpty(image.getRGB(5, 5));
-            assertRGB(image.getRGB(3, 15), 255, 0, 0);
-            assertRGB(image.getRGB(13, 3), 0, 0, 0);
+            String xpm = "/* XPM */\n" +
+                    "static char *x[] = {\n" +
+                    "\"2 2 2 9\",\n" +
+                    "\"aaaaaaaaa c #ff0000 m white\",\n" +
+                    "\"bbbbbbbbb c #0000ff m black\",\n" +
+                    "\"aaaaaaaaabbbbbbbbb\",\n" +
+                    "\"bbbbbbbbbaaaaaaaaa\"\n" +
+                    "};\n";
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII))));
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setDisplayType(DisplayType.MONOCHROME);
+            BufferedImage image = reader.read(0, param);
+            assertRGB(image.getRGB(0, 0), 255, 255, 255);
+            assertRGB(image.getRGB(1, 0), 0, 0, 0);
+            assertRGB(image.getRGB(0, 1), 0, 0, 0);
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void readWithDestinationOffset() throws Exception {
+    void readWithLegacyDecoderEnabledMultipleTimes() throws Exception {
         XPMImageReader reader = newReaderForImage("xpm.xpm");
         try {
-            ImageReadParam param = reader.getDefaultReadParam();
-            param.setDestinationOffset(new Point(10, 10));
-            BufferedImage image = reader.read(0, param);
-            assertEquals(32, image.getWidth());
-            assertEquals(32, image.getHeight());
-            assertRGB(image.getRGB(5, 5), 0, 0, 0);
-            assertRGB(image.getRGB(18, 16), 0, 255, 0);
-            assertRGB(image.getRGB(18, 20), 255, 0, 0);
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setLegacyDecoderEnabled(true);
+            BufferedImage image1 = reader.read(0, param);
+            BufferedImage image2 = reader.read(0, param);
+            assertEquals(image1.getRGB(13, 3), image2.getRGB(13, 3));
+            assertEquals(image1.getRGB(3, 15), image2.getRGB(3, 15));
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void readWithHexColors() throws Exception {
-        XPMImageReader reader = newReaderForImage("hex_colors.xpm");
+    void readWithLegacyDecoderEnabledAndSubsampling() throws Exception {
+        BufferedImage[] images = new BufferedImage[2];
+        for (int i = 0; i < images.length; i++) {
+            XPMImageReader reader = newReaderForImage("xv.xpm");
+            try {
+                XPMImageReadParam param = new XPMImageReadParam();
+                param.setLegacyDecoderEnabled(i == 1);
+                param.setSourceRegion(new Rectangle(5, 3, 37, 41));
+                param.setSourceSubsampling(3, 2, 0, 0);
+                param.setDestinationOffset(new Point(1, 2));
+                images[i] = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        assertEquals(images[0].getWidth(), images[1].getWidth());
+        assertEquals(images[0].getHeight(), images[1].getHeight());
+        for (int y = 0; y < images[0].getHeight(); y++) {
+            for (int x = 0; x < images[0].getWidth(); x++) {
+                assertEquals(images[0].getRGB(x, y), images[1].getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * @return XPM with a pseudo-random pattern of the given number of colors,
+     *         whose codes are the same for any number of characters per
+     *         pixel apart from padding. Comments precede the pixel section
+     *         and separate some of its rows, and one row is short.
+     */
+    private static byte[] newPatternXPM(int width,
+                                        int height,
+                                        int numColors,
+                                        int numCharsPerPixel) {
+        final String alphabet = "abcdefghijklmnopqrstuvwxyz";
+        final String[] codes = new String[numColors];
+        for (int i = 0; i < numColors; i++) {
+            StringBuilder code = new StringBuilder()
+                    .append(alphabet.charAt(i % alphabet.length()))
+                    .append(alphabet.charAt(i / alphabet.length()));
+            while (code.length() < numCharsPerPixel) {
+                code.append('.');
+            }
+            codes[i] = code.toString();
+        }
+        StringBuilder xpm = new StringBuilder("/* XPM */\n" +
+                "static char *x[] = {\n");
+        xpm.append('"').append(width).append(' ').append(height).append(' ')
+                .append(numColors).append(' ').append(numCharsPerPixel)
+                .append("\",\n");
+        for (int i = 0; i < numColors; i++) {
+            xpm.append('"').append(codes[i]).append(String.format(
+                    " c #%06X\",\n", (i * 0x9E3779) & 0xffffff));
+        }
+        xpm.append("/* pixels */\n");
+        for (int y = 0; y < height; y++) {
+            if (y % 5 == 2) {
+                xpm.append("/* row ").append(y).append(" */\n");
+            }
+            final int rowWidth = (y == height / 2) ? width / 2 : width;
+            xpm.append('"');
+            for (int x = 0; x < rowWidth; x++) {
+                xpm.append(codes[(x * 7 + y * 13 + x * y) % numColors]);
+            }
+            xpm.append("\",\n");
+        }
+        xpm.append("};\n");
+        return xpm.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static BufferedImage read(byte[] xpm,
+                                      ImageReadParam param) throws IOException {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
         try {
-            BufferedImage image = reader.read(0);
-            assertEquals(32, image.getWidth());
-            assertEquals(28, image.getHeight());
-            assertRGB(image.getRGB(3, 3), 70, 136, 85);
-            assertRGB(image.getRGB(25, 25), 153, 133, 107);
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm)));
+            return reader.read(0, param);
         } finally {
             reader.dispose();
         }
     }
 
+    private static void assertSamePixels(BufferedImage expected,
+                                         BufferedImage actual,
+                                         String message) {
+        assertEquals(expected.getWidth(), actual.getWidth(), message);
+        assertEquals(expected.getHeight(), actual.getHeight(), message);
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y),
+                        message + " at " + x + "," + y);
+            }
+        }
+    }
+
     /**
-     * Hotspots are irrelevant to the reader; this just tests whether it can
-     * parse a file that contains them.
+     * Source regions and subsampling periods with which the decoders are
+     * compared.
      */
+    private static final int[][] PARITY_SETTINGS = {
+            // x, y, width, height, subsampX, subsampY
+            { 0, 0, 0, 0, 1, 1 },
+            { 0, 0, 0, 0, 2, 2 },
+            { 0, 0, 0, 0, 3, 1 },
+            { 0, 0, 0, 0, 1, 4 },
+            { 1, 3, 30, 30, 5, 3 },
+    };
+
+    private static XPMImageReadParam newParityParam(int[] setting,
+                                                    boolean isLegacy) {
+        XPMImageReadParam param = new XPMImageReadParam();
+        param.setLegacyDecoderEnabled(isLegacy);
+        if (setting[2] > 0) {
+            param.setSourceRegion(new Rectangle(
+                    setting[0], setting[1], setting[2], setting[3]));
+        }
+        param.setSourceSubsampling(setting[4], setting[5], 0, 0);
+        return param;
+    }
+
     @Test
-    void readWithHotspot() throws Exception {
-        XPMImageReader reader = newReaderForImage("hotspot.xpm");
-        try {
-            BufferedImage image = reader.read(0);
-            assertEquals(22, image.getWidth());
-            assertEquals(22, image.getHeight());
-        } finally {
-            reader.dispose();
+    void readWithLegacyDecoderEnabledMatchesByteDecoder() throws Exception {
+        final String[] fixtures = { "1_char_per_pixel.xpm",
+                "2_chars_per_pixel.xpm", "16bit.xpm", "hex_colors.xpm",
+                "hotspot.xpm", "odd_dimensions.xpm", "xpm.xpm", "xv.xpm" };
+        for (String fixture : fixtures) {
+            final byte[] xpm = Files.readAllBytes(
+                    Paths.get("./src/test/resources/" + fixture));
+            for (int[] setting : PARITY_SETTINGS) {
+                assertSamePixels(read(xpm, newParityParam(setting, false)),
+                        read(xpm, newParityParam(setting, true)),
+                        fixture + " " + Arrays.toString(setting));
+            }
         }
     }
 
     @Test
-    void readWithOddDimensions() throws Exception {
-        XPMImageReader reader = newReaderForImage("odd_dimensions.xpm");
+    void readWith9CharactersPerPixelMatches2CharactersPerPixel()
+            throws Exception {
+        final byte[] xpm2 = newPatternXPM(37, 41, 300, 2);
+        final byte[] xpm9 = newPatternXPM(37, 41, 300, 9);
+        for (int[] setting : PARITY_SETTINGS) {
+            final BufferedImage expected = read(xpm2, newParityParam(setting, false));
+            assertSamePixels(expected, read(xpm2, newParityParam(setting, true)),
+                    "2 " + Arrays.toString(setting));
+            assertSamePixels(expected, read(xpm9, newParityParam(setting, false)),
+                    "9 " + Arrays.toString(setting));
+        }
+    }
+
+    @Test
+    void readWithLegacyDecoderEnabledAndShortRow() throws Exception {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
         try {
-            BufferedImage image = reader.read(0);
-            assertEquals(21, image.getWidth());
-            assertEquals(18, image.getHeight());
+            String xpm = "/* XPM */\n" +
+                    "static char *x[] = {\n" +
+                    "\"3 2 2 1\",\n" +
+                    "\"a c #ff0000\",\n" +
+                    "\"b c #0000ff\",\n" +
+                    "\"ab\",\n" +
+                    "\"bab\"\n" +
+                    "};\n";
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm.getBytes(StandardCharsets.US_ASCII))));
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setLegacyDecoderEnabled(true);
+            BufferedImage image = reader.read(0, param);
+            assertEquals(0xff0000ff, image.getRGB(1, 0));
+            assertEquals(0, image.getRGB(2, 0));
+            assertEquals(0xff0000ff, image.getRGB(2, 1));
         } finally {
             reader.dispose();
         }
     }
 
     @Test
-    void readWithSourceRegion() throws Exception {
+    void readWithHeaderCacheKey() throws Exception {
+        final XPMHeaderCache cache = XPMHeaderCache.getInstance();
+        final Object key = new Object();
+        final long hitCount = cache.getHitCount();
+        BufferedImage[] images = new BufferedImage[2];
+        for (int i = 0; i < images.length; i++) {
+            XPMImageReader reader = newReaderForImage("xpm.xpm");
+            try {
+                reader.setHeaderCacheKey(key);
+                images[i] = reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+        assertEquals(hitCount + 1, cache.getHitCount());
+        for (int y = 0; y < images[0].getHeight(); y++) {
+            for (int x = 0; x < images[0].getWidth(); x++) {
+                assertEquals(images[0].getRGB(x, y), images[1].getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void setInputResetsState() throws Exception {
         XPMImageReader reader = newReaderForImage("xpm.xpm");
         try {
-            ImageReadParam param = reader.getDefaultReadParam();
-            param.setSourceRegion(new Rectangle(11, 11, 11, 11));
-            BufferedImage image = reader.read(0, param);
-            assertEquals(11, image.getWidth());
-            assertEquals(11, image.getHeight());
-            assertRGB(image.getRGB(0, 0), 0, 0, 0);
-            assertRGB(image.getRGB(1, 0), 0, 0, 0);
-            assertRGB(image.getRGB(5, 4), 0, 255, 0);
-            assertRGB(image.getRGB(10, 10), 255, 0, 0);
-            assertRGB(image.getRGB(9, 10), 0, 0, 0);
+            assertEquals(22, reader.getWidth(0));
+            reader.setInput(new FileImageInputStream(
+                    new File("./src/test/resources/16bit.xpm")));
+            assertEquals(48, reader.getWidth(0));
+            assertRGB(reader.read(0).getRGB(10, 10), 223, 146, 57);
         } finally {
             reader.dispose();
         }
@@ -369,6 +1800,58 @@ class XPMImageReaderTest {
         }
     }
 
+    @Test
+    void readWithTypeSpecifierOfByteIndexed() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            Iterator<ImageTypeSpecifier> it = reader.getImageTypes(0);
+            ImageTypeSpecifier type = null;
+            while (it.hasNext()) {
+                type = it.next();
+                if (type.getBufferedImageType() == BufferedImage.TYPE_BYTE_INDEXED) {
+                    break;
+                }
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestinationType(type);
+            BufferedImage image = reader.read(0, param);
+            assertEquals(BufferedImage.TYPE_BYTE_INDEXED, image.getType());
+            assertEquals(22, image.getWidth());
+            assertEquals(22, image.getHeight());
+            assertEmpty(image.getRGB(5, 5));
+            assertRGB(image.getRGB(3, 15), 255, 0, 0);
+            assertRGB(image.getRGB(13, 3), 0, 0, 0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWithTypeSpecifierOfPackedIndexed() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            Iterator<ImageTypeSpecifier> it = reader.getImageTypes(0);
+            ImageTypeSpecifier type = null;
+            while (it.hasNext()) {
+                type = it.next();
+            }
+            assertEquals(4, type.getColorModel().getPixelSize());
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setDestinationType(type);
+            param.setDisplayType(DisplayType.MONOCHROME);
+            BufferedImage image = reader.read(0, param);
+            assertTrue(image.getColorModel() instanceof IndexColorModel);
+            assertEquals(4, image.getColorModel().getPixelSize());
+            assertEquals(22, image.getWidth());
+            assertEquals(22, image.getHeight());
+            assertEmpty(image.getRGB(5, 5));
+            assertRGB(image.getRGB(3, 15), 255, 255, 255);
+            assertRGB(image.getRGB(13, 3), 0, 0, 0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
     @Test
     void readWithDisplayTypeOfColor() throws Exception {
         XPMImageReader reader = newReaderForImage("xpm.xpm");
@@ -441,6 +1924,40 @@ class XPMImageReaderTest {
         }
     }
 
+    @Test
+    void readWithLegacyDecoderEnabled() throws Exception {
+        XPMImageReader reader = newReaderForImage("1_char_per_pixel.xpm");
+        try {
+            XPMImageReadParam param = new XPMImageReadParam();
+            param.setLegacyDecoderEnabled(true);
+            BufferedImage image = reader.read(0, param);
+            assertEquals(BufferedImage.TYPE_INT_ARGB, image.getType());
+            assertEquals(22, image.getWidth());
+            assertEquals(22, image.getHeight());
+            assertEmpty(image.getRGB(5, 5));
+            assertRGB(image.getRGB(3, 15), 255, 0, 0);
+            assertRGB(image.getRGB(13, 3), 0, 0, 0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readWithCommentsInPixelSection() throws Exception {
+        XPMImageReader reader = newReaderForImage("xpm.xpm");
+        try {
+            BufferedImage image = reader.read(0);
+            // The first row follows a "pixels" comment and the last row is
+            // followed by the closing brace.
+            assertEmpty(image.getRGB(0, 0));
+            assertRGB(image.getRGB(16, 0), 255, 255, 0);
+            assertRGB(image.getRGB(21, 21), 0, 0, 0);
+            assertRGB(image.getRGB(20, 21), 255, 0, 0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
     /**
      * Tests reading an image written by XV.
      */
@@ -452,7 +1969,7 @@ class XPMImageReaderTest {
             assertEquals(BufferedImage.TYPE_INT_ARGB, image.getType());
             assertEquals(48, image.getWidth());
             assertEquals(48, image.getHeight());
-            assertRGB(image.getRGB(2, 2), 5, 3, 7);
+            assertRGB(image.getRGB(2, 2), 249, 172, 125);
             assertRGB(image.getRGB(46, 6), 5, 50, 207);
         } finally {
             reader.dispose();
@@ -0,0 +1,53 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XPMImageWriterSpiTest {
+
+    @BeforeAll
+    static void beforeClass() {
+        System.setProperty("java.awt.headless", "true");
+        ImageIO.scanForPlugins();
+    }
+
+    @Test
+    void getImageReader() {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("xpm").next();
+        ImageReader reader = ImageIO.getImageReader(writer);
+        assertTrue(reader instanceof XPMImageReader);
+    }
+
+    @Test
+    void serviceProviderRegistrationByFormatName() {
+        Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName("xpm");
+        assertTrue(it.hasNext());
+        assertTrue(it.next() instanceof XPMImageWriter);
+
+        it = ImageIO.getImageWritersByFormatName("XPM");
+        assertTrue(it.hasNext());
+        assertTrue(it.next() instanceof XPMImageWriter);
+    }
+
+    @Test
+    void serviceProviderRegistrationByMIMEType() {
+        Iterator<ImageWriter> it = ImageIO.getImageWritersByMIMEType("image/x-xpixmap");
+        assertTrue(it.hasNext());
+        assertTrue(it.next() instanceof XPMImageWriter);
+    }
+
+    @Test
+    void serviceProviderRegistrationBySuffix() {
+        Iterator<ImageWriter> it = ImageIO.getImageWritersBySuffix("xpm");
+        assertTrue(it.hasNext());
+        assertTrue(it.next() instanceof XPMImageWriter);
+    }
+
+}
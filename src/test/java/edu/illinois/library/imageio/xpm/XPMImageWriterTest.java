@@ -0,0 +1,221 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XPMImageWriterTest {
+
+    private XPMImageWriter instance;
+
+    @BeforeAll
+    static void beforeClass() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @BeforeEach
+    void setUp() {
+        instance = new XPMImageWriter(new XPMImageWriterSpi());
+    }
+
+    @AfterEach
+    void tearDown() {
+        instance.dispose();
+    }
+
+    /**
+     * @return Image in which every pixel has a different color, except for a
+     *         transparent first row.
+     */
+    private static BufferedImage newImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int argb = (y == 0) ? 0 : 0xff000000 | (y * width + x) * 97;
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+
+    private byte[] write(BufferedImage image,
+                         ImageWriteParam param) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(os)) {
+            instance.setOutput(ios);
+            instance.write(null, new IIOImage(image, null, null), param);
+        }
+        return os.toByteArray();
+    }
+
+    private static BufferedImage read(byte[] xpm) throws IOException {
+        XPMImageReader reader = new XPMImageReader(new XPMImageReaderSpi());
+        try {
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(xpm)));
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * @return Values line of the given image.
+     */
+    private static String valuesLine(byte[] xpm) {
+        return new String(xpm, StandardCharsets.US_ASCII).split("\n")[3];
+    }
+
+    private static void assertSameImage(BufferedImage expected,
+                                        BufferedImage actual) {
+        assertSameImage(expected, 0, 0, 1, 1, actual);
+    }
+
+    /**
+     * Asserts that every pixel of {@literal actual} matches the
+     * corresponding one in {@literal expected}, treating all transparent
+     * pixels as equal.
+     */
+    private static void assertSameImage(BufferedImage expected,
+                                        int offsetX,
+                                        int offsetY,
+                                        int subsampX,
+                                        int subsampY,
+                                        BufferedImage actual) {
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                int argb = expected.getRGB(offsetX + x * subsampX,
+                        offsetY + y * subsampY);
+                if (argb >>> 24 == 0) {
+                    assertEquals(0, actual.getRGB(x, y) >>> 24);
+                } else {
+                    assertEquals(argb, actual.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    void charsPerPixel() {
+        assertEquals(1, XPMImageWriter.charsPerPixel(1));
+        assertEquals(1, XPMImageWriter.charsPerPixel(92));
+        assertEquals(2, XPMImageWriter.charsPerPixel(93));
+        assertEquals(2, XPMImageWriter.charsPerPixel(92 * 92));
+        assertEquals(3, XPMImageWriter.charsPerPixel(92 * 92 + 1));
+    }
+
+    @Test
+    void write() throws Exception {
+        BufferedImage image = newImage(10, 8);
+        byte[] xpm = write(image, null);
+        assertEquals("\"10 8 71 1\",", valuesLine(xpm));
+        assertSameImage(image, read(xpm));
+    }
+
+    @Test
+    void writeWithManyColors() throws Exception {
+        BufferedImage image = newImage(50, 40);
+        byte[] xpm = write(image, null);
+        assertEquals("\"50 40 1951 2\",", valuesLine(xpm));
+        assertSameImage(image, read(xpm));
+
+        image = newImage(100, 100);
+        xpm   = write(image, null);
+        assertEquals("\"100 100 9901 3\",", valuesLine(xpm));
+        assertSameImage(image, read(xpm));
+    }
+
+    @Test
+    void writeWithSourceRegionAndSubsampling() throws Exception {
+        BufferedImage image = newImage(20, 20);
+        ImageWriteParam param = instance.getDefaultWriteParam();
+        param.setSourceRegion(new Rectangle(3, 0, 10, 12));
+        param.setSourceSubsampling(2, 3, 0, 0);
+        BufferedImage result = read(write(image, param));
+        assertEquals(5, result.getWidth());
+        assertEquals(4, result.getHeight());
+        assertSameImage(image, 3, 0, 2, 3, result);
+    }
+
+    @Test
+    void writeWithSubsamplingOffsets() throws Exception {
+        BufferedImage image = newImage(20, 20);
+        ImageWriteParam param = instance.getDefaultWriteParam();
+        param.setSourceRegion(new Rectangle(3, 2, 10, 12));
+        param.setSourceSubsampling(2, 3, 1, 2);
+        BufferedImage result = read(write(image, param));
+        assertEquals(5, result.getWidth());
+        assertEquals(4, result.getHeight());
+        assertSameImage(image, 4, 4, 2, 3, result);
+    }
+
+    @Test
+    void writeAfterAbort() throws Exception {
+        IIOWriteProgressListener listener = new IIOWriteProgressListener() {
+            @Override
+            public void imageStarted(ImageWriter source, int imageIndex) {
+                source.abort();
+            }
+            @Override
+            public void imageProgress(ImageWriter source, float percentageDone) {}
+            @Override
+            public void imageComplete(ImageWriter source) {}
+            @Override
+            public void thumbnailStarted(ImageWriter source, int imageIndex,
+                                         int thumbnailIndex) {}
+            @Override
+            public void thumbnailProgress(ImageWriter source, float percentageDone) {}
+            @Override
+            public void thumbnailComplete(ImageWriter source) {}
+            @Override
+            public void writeAborted(ImageWriter source) {}
+        };
+        BufferedImage image = newImage(10, 8);
+        instance.addIIOWriteProgressListener(listener);
+        write(image, null);
+        instance.removeIIOWriteProgressListener(listener);
+
+        byte[] xpm = write(image, null);
+        assertEquals("\"10 8 71 1\",", valuesLine(xpm));
+        assertSameImage(image, read(xpm));
+    }
+
+    @Test
+    void writeWithNonASCIIDigitLocale() throws Exception {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.forLanguageTag("th-TH-u-nu-thai"));
+            BufferedImage image = newImage(10, 8);
+            byte[] xpm = write(image, null);
+            assertEquals("\"10 8 71 1\",", valuesLine(xpm));
+            assertSameImage(image, read(xpm));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    void writeWithoutOutput() {
+        assertThrows(IllegalStateException.class,
+                () -> instance.write(newImage(2, 2)));
+    }
+
+}
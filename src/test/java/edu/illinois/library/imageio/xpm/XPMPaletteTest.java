@@ -0,0 +1,99 @@
+package edu.illinois.library.imageio.xpm;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XPMPaletteTest {
+
+    private static XPMPalette newInstance(int numCharsPerPixel,
+                                          String... codes) {
+        Map<String,XPMPixel> colorMap = new HashMap<>();
+        for (int i = 0; i < codes.length; i++) {
+            colorMap.put(codes[i], XPMPixel.parse(
+                    String.format("c #%06x", (i * 0x010203) & 0xffffff)));
+        }
+        return new XPMPalette(colorMap, numCharsPerPixel);
+    }
+
+    private static void assertLookup(XPMPalette instance, String... codes) {
+        for (String code : codes) {
+            byte[] bytes = ("xx" + code).getBytes(StandardCharsets.ISO_8859_1);
+            int index = instance.indexOf(bytes, 2);
+            assertTrue(index >= 0, code);
+            assertEquals(codeToColor(codes, code),
+                    instance.getColors(DisplayType.COLOR)[index]);
+        }
+    }
+
+    private static int codeToColor(String[] codes, String code) {
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i].equals(code)) {
+                return 0xff000000 | ((i * 0x010203) & 0xffffff);
+            }
+        }
+        throw new IllegalArgumentException(code);
+    }
+
+    @Test
+    void constructorWithIllegalNumCharsPerPixel() {
+        assertThrows(IllegalArgumentException.class,
+                () -> newInstance(0, "a"));
+        assertThrows(IllegalArgumentException.class,
+                () -> newInstance(9, "abcdefghi"));
+    }
+
+    @Test
+    void getColorsWithDisplayType() {
+        Map<String,XPMPixel> colorMap = new HashMap<>();
+        colorMap.put("a", XPMPixel.parse("c red m white"));
+        XPMPalette instance = new XPMPalette(colorMap, 1);
+        assertEquals(0xffff0000, instance.getColors(DisplayType.COLOR)[0]);
+        assertEquals(0xff4c4c4c, instance.getColors(DisplayType.GRAYSCALE)[0]);
+        assertEquals(0xffffffff, instance.getColors(DisplayType.MONOCHROME)[0]);
+    }
+
+    @Test
+    void indexOfWith1CharPerPixel() {
+        String[] codes = { " ", ".", "X", "\u00ff" };
+        XPMPalette instance = newInstance(1, codes);
+        assertLookup(instance, codes);
+        assertEquals(-1, instance.indexOf(new byte[] { 'q' }, 0));
+    }
+
+    @Test
+    void indexOfWith2CharsPerPixel() {
+        String[] codes = { "  ", ". ", " .", "Xo", "oX" };
+        XPMPalette instance = newInstance(2, codes);
+        assertLookup(instance, codes);
+        assertEquals(-1, instance.indexOf(new byte[] { 'X', 'X' }, 0));
+    }
+
+    @Test
+    void indexOfWith3CharsPerPixel() {
+        String[] codes = new String[5000];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = "" + (char) ('!' + i % 90) +
+                    (char) ('!' + (i / 90) % 90) + (char) ('a' + i / 8100);
+        }
+        XPMPalette instance = newInstance(3, codes);
+        assertEquals(codes.length, instance.size());
+        assertLookup(instance, codes);
+        assertEquals(-1, instance.indexOf(new byte[] { 'z', 'z', 'z' }, 0));
+    }
+
+    @Test
+    void indexOfWith8CharsPerPixel() {
+        String[] codes = { "        ", "abcdefgh", "hgfedcba",
+                "\u00ff\u00ff\u00ff\u00ff\u00ff\u00ff\u00ff\u00ff" };
+        XPMPalette instance = newInstance(8, codes);
+        assertLookup(instance, codes);
+        assertEquals(-1, instance.indexOf(
+                "abcdefgz".getBytes(StandardCharsets.US_ASCII), 0));
+    }
+
+}
@@ -2,6 +2,14 @@ package edu.illinois.library.imageio.xpm;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class XPMPixelTest {
@@ -61,6 +69,109 @@ class XPMPixelTest {
         assertEquals(0, actual.getMonoColor());
     }
 
+    @Test
+    void parseWith9CharacterHexadecimalColors() {
+        XPMPixel actual = XPMPixel.parse("c #ffc8a030b g #800800800");
+        assertEquals(0xffff8931, actual.getRGBColor());
+        assertEquals(12, actual.getRGBComponentSize());
+        assertEquals(0xff808080, actual.getGrayColor());
+    }
+
+    @Test
+    void parseWithHexadecimalColorsRescalesToNearest() {
+        // Every 16- and 12-bit value rescales like Math.round() would.
+        for (int v = 0; v <= 0xffff; v++) {
+            String hex = String.format("%04x", v);
+            XPMPixel actual = XPMPixel.parse("c #" + hex + hex + hex);
+            assertEquals(Math.round(v / 65535.0 * 255),
+                    actual.getRGBColor() & 0xff, hex);
+        }
+        for (int v = 0; v <= 0xfff; v++) {
+            String hex = String.format("%03X", v);
+            XPMPixel actual = XPMPixel.parse("c #" + hex + hex + hex);
+            assertEquals(Math.round(v / 4095.0 * 255),
+                    actual.getRGBColor() & 0xff, hex);
+        }
+    }
+
+    @Test
+    void parseWithMultiWordX11Color() {
+        XPMPixel actual = XPMPixel.parse("c light steel blue m white");
+        assertEquals(0xffb0c4de, actual.getRGBColor());
+        assertEquals(0xffffffff, actual.getMonoColor());
+    }
+
+    @Test
+    void parseWithIrregularlySeparatedMultiWordX11Color() {
+        XPMPixel actual = XPMPixel.parse("\tc  Light\t steel  BLUE\",");
+        assertEquals(0xffb0c4de, actual.getRGBColor());
+    }
+
+    @Test
+    void parseWithByteRange() {
+        byte[] bytes = "\"a c #ff0000 m black\",".getBytes(StandardCharsets.US_ASCII);
+        XPMPixel actual = XPMPixel.parse(bytes, 2, bytes.length);
+        assertEquals(0xffff0000, actual.getRGBColor());
+        assertEquals(0xff000000, actual.getMonoColor());
+    }
+
+    @Test
+    void parseWithoutDisplayTypeKey() {
+        assertNull(XPMPixel.parse("#ff0000"));
+        assertNull(XPMPixel.parse("\",\t"));
+    }
+
+    @Test
+    void parseWithInvalidNumberOfHexadecimalDigits() {
+        assertThrows(NumberFormatException.class,
+                () -> XPMPixel.parse("c #ffc8"));
+        assertThrows(NumberFormatException.class,
+                () -> XPMPixel.parse("c #ffc8a030ba34f"));
+    }
+
+    @Test
+    void parseWithInvalidHexadecimalColor() {
+        assertThrows(NumberFormatException.class,
+                () -> XPMPixel.parse("c #ffzz00"));
+    }
+
+    @Test
+    void parseConcurrently() throws Exception {
+        final String[] lines = new String[X11ColorNames.size()];
+        final int[] expected = new int[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i]    = "c " + X11ColorTable.NAMES[i] + " m white";
+            expected[i] = X11ColorTable.COLORS[i];
+        }
+        final int numThreads = Math.max(4,
+                Runtime.getRuntime().availableProcessors());
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < lines.length; i++) {
+                        // Each thread starts at a different line.
+                        int j = (i + offset * 97) % lines.length;
+                        XPMPixel pixel = XPMPixel.parse(lines[j]);
+                        assertEquals(expected[j], pixel.getRGBColor(), lines[j]);
+                        assertEquals(0xffffffff, pixel.getMonoColor());
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     void getEffectiveGrayColorWithGrayColorSet() {
         XPMPixel pixel = XPMPixel.parse("g black");